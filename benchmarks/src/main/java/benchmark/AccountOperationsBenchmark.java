@@ -0,0 +1,80 @@
+package benchmark;
+
+import datasource.AccountRepository;
+import domain.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits, withdrawals, transfers and saves. Each one persists through the accounts
+ * journal, so the amount of data loaded barely matters and one size is enough.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountOperationsBenchmark {
+    private static final int ACCOUNTS = 10_000;
+
+    private AccountRepository repo;
+    // Checking accounts (every third one), which have no withdrawal limits
+    private Account a;
+    private Account b;
+    private int next = 0;
+    private long withdrawnCents = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The code under test logs every call
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ScratchData.generate(ACCOUNTS, ACCOUNTS);
+        repo = new AccountRepository();
+        a = repo.findById(DataGenerator.accountId(3)).orElseThrow();
+        b = repo.findById(DataGenerator.accountId(6)).orElseThrow();
+    }
+
+    // Puts back what withdraw took, so the balance never runs out however fast it goes
+    @TearDown(Level.Iteration)
+    public void refill() {
+        if (withdrawnCents > 0) a.deposit(withdrawnCents);
+        withdrawnCents = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+        ScratchData.clean();
+    }
+
+    @Benchmark
+    public void deposit() {
+        a.deposit(100);
+    }
+
+    @Benchmark
+    public void withdraw() {
+        // One cent, so even a fast iteration can't drain the balance before the refill
+        a.withdraw(1);
+        withdrawnCents++;
+    }
+
+    @Benchmark
+    public void transfer() {
+        if ((next++ & 1) == 0) {
+            a.transfer(b, 100);
+        } else {
+            b.transfer(a, 100);
+        }
+    }
+
+    @Benchmark
+    public void save() {
+        repo.save(repo.findById(DataGenerator.accountId(next++ % ACCOUNTS)).orElseThrow());
+    }
+}
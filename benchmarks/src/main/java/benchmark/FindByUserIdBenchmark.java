@@ -0,0 +1,75 @@
+package benchmark;
+
+import datasource.AccountRepository;
+import domain.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * AccountRepository.findByUserId against the scan it replaced.
+ *
+ * {@code scan} filters every cached account by owner, which is how findByUserId worked
+ * before the repository kept a userId index; {@code index} is the repository call as it is
+ * now. Both look up the same sequence of random users among the same accounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindByUserIdBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int accounts;
+
+    private AccountRepository repo;
+    // The account cache as the old scan saw it
+    private final Map<String, Account> cache = new ConcurrentHashMap<>();
+    private final String[] userIds = new String[1024];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ScratchData.generate(accounts, 0);
+        repo = new AccountRepository();
+        for (Account account : repo.findAll()) {
+            cache.put(account.getAccountId(), account);
+        }
+
+        Random random = new Random(ScratchData.SEED);
+        int users = ScratchData.users(accounts);
+        for (int i = 0; i < userIds.length; i++) {
+            userIds[i] = DataGenerator.userId(random.nextInt(users));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+        ScratchData.clean();
+    }
+
+    private String nextUserId() {
+        return userIds[next++ & (userIds.length - 1)];
+    }
+
+    @Benchmark
+    public List<Account> scan() {
+        String userId = nextUserId();
+        return cache.values().stream()
+                .filter(account -> account.getUserId().equals(userId))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Account> index() {
+        return repo.findByUserId(nextUserId());
+    }
+}
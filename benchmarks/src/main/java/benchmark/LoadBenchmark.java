@@ -0,0 +1,45 @@
+package benchmark;
+
+import datasource.AccountRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening an AccountRepository: loading accounts.csv and indexing transactions.csv.
+ * Each measurement is one open of freshly generated files, since closing the repository
+ * may already have folded transactions.csv into the binary store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Setup(Level.Trial)
+    public void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        ScratchData.generate(size, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ScratchData.clean();
+    }
+
+    @Benchmark
+    public void loadTransactionsFromCsv() {
+        new AccountRepository().close();
+    }
+}
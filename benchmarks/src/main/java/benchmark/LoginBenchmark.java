@@ -0,0 +1,64 @@
+package benchmark;
+
+import datasource.UserRepository;
+import domain.AuthService;
+import domain.PasswordHasher;
+import domain.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AuthService.login with a full PBKDF2 key derivation ({@code kdf}, on a fresh service with
+ * an empty verification cache) and answered from the cache ({@code cached}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginBenchmark {
+    private static final String EMAIL = "bench@example.com";
+    private static final String PASSWORD = "correct horse";
+
+    private UserRepository users;
+    private PasswordHasher hasher;
+    private AuthService warm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ScratchData.generate(0, 0);
+        users = new UserRepository();
+        hasher = new PasswordHasher(PasswordHasher.DEFAULT_ITERATIONS);
+        try (AuthService auth = new AuthService(users, hasher)) {
+            auth.register(EMAIL, PASSWORD);
+        }
+        warm = new AuthService(users, hasher);
+        warm.login(EMAIL, PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        warm.close();
+        users.close();
+        ScratchData.clean();
+    }
+
+    @Benchmark
+    public Optional<User> kdf() {
+        try (AuthService cold = new AuthService(users, hasher)) {
+            return cold.login(EMAIL, PASSWORD);
+        }
+    }
+
+    @Benchmark
+    public Optional<User> cached() {
+        return warm.login(EMAIL, PASSWORD);
+    }
+}
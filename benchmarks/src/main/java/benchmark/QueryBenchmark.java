@@ -0,0 +1,68 @@
+package benchmark;
+
+import datasource.AccountRepository;
+import domain.AccountHistory;
+import domain.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * History queries over as many transactions as accounts. {@link DataGenerator#HOT_ACCOUNT}
+ * holds a tenth of them, so the AccountHistory benchmarks always have a long history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private AccountRepository repo;
+    private AccountHistory history;
+    private final String[] accountIds = new String[1024];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ScratchData.generate(size, size);
+        repo = new AccountRepository();
+        history = new AccountHistory(DataGenerator.HOT_ACCOUNT, repo);
+
+        Random random = new Random(ScratchData.SEED);
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = DataGenerator.accountId(random.nextInt(size));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+        ScratchData.clean();
+    }
+
+    @Benchmark
+    public List<Transaction> findTransactionsByAccountId() {
+        return repo.findTransactionsByAccountId(accountIds[next++ & (accountIds.length - 1)]);
+    }
+
+    @Benchmark
+    public List<AccountHistory.BalanceSnapshot> calculateRunningBalance() {
+        return history.calculateRunningBalance(0);
+    }
+
+    @Benchmark
+    public Map<String, Long> getSummary() {
+        return history.getSummary();
+    }
+}
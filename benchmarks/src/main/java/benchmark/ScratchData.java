@@ -0,0 +1,38 @@
+package benchmark;
+
+import java.io.IOException;
+
+/**
+ * Data files for the JMH benchmarks, generated into the working directory the same way
+ * {@link BenchmarkRunner} does it, with the same seed.
+ */
+final class ScratchData {
+    static final long SEED = 42;
+
+    private ScratchData() {
+    }
+
+    /**
+     * Replaces the data files in the working directory with {@code accounts} accounts, owned
+     * three to a user, and {@code transactions} transactions.
+     *
+     * @throws IllegalStateException if the directory holds data the benchmarks didn't create
+     */
+    static void generate(int accounts, int transactions) throws IOException {
+        if (!BenchmarkRunner.claimWorkingDirectory()) {
+            throw new IllegalStateException("Working directory holds data files not made by the benchmark; "
+                    + "run from an empty directory.");
+        }
+        BenchmarkRunner.clean();
+        new DataGenerator(SEED).writeAccounts(accounts, users(accounts));
+        new DataGenerator(SEED).writeTransactions(transactions, accounts);
+    }
+
+    static int users(int accounts) {
+        return Math.max(1, accounts / 3);
+    }
+
+    static void clean() throws IOException {
+        BenchmarkRunner.clean();
+    }
+}
@@ -1,14 +1,31 @@
+import datasource.DataContext;
+import domain.AuthService;
+import metrics.Metrics;
 import presentation.*;
 import javax.swing.*;
+import java.nio.file.Paths;
 
 
 public class Main {
     public static void main(String[] args) {
+        // -Dmetrics.dump=metrics.csv writes operation latencies and counters to that file periodically
+        String dumpFile = System.getProperty("metrics.dump");
+        if (dumpFile != null) {
+            Metrics.startDump(Paths.get(dumpFile), Long.getLong("metrics.dumpPeriodMillis", 60_000));
+        }
+
+        DataContext data = DataContext.get();
+        // One AuthService for the whole process, so sessions and cached verifications are shared
+        AuthService authService = new AuthService(data.getUserRepository());
+
         JFrame frame = new JFrame("Login Demo");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(600, 600);
         frame.setLocationRelativeTo(null);
-        frame.add(new Login());
+        frame.add(new Login(authService));
         frame.setVisible(true);
+
+        // Load accounts and history while the user is typing their password
+        data.warmUp();
     }
 }
@@ -0,0 +1,254 @@
+package benchmark;
+
+import datasource.AccountRepository;
+import datasource.DurabilityPolicy;
+import datasource.UserRepository;
+import domain.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Benchmarks for the domain and datasource layers.
+ *
+ * The repositories read and write their files in the working directory, so run this from an
+ * empty scratch directory; it refuses to start next to data it didn't generate.
+ *
+ * Usage: java benchmark.BenchmarkRunner [--sizes 10000,100000,1000000] [--save-baseline FILE]
+ *        [--baseline FILE] [--threshold PERCENT] [--kdf-iterations N]
+ *
+ * With --baseline, each result is compared with the stored one and the run exits with
+ * status 1 if any is slower by more than the threshold (10% by default).
+ */
+public class BenchmarkRunner {
+    private static final String MARKER = ".benchmark-data";
+    private static final String[] DATA_PREFIXES = {"accounts.", "transactions.", "users."};
+    private static final long SEED = 42;
+
+    private final Harness harness = new Harness(2, 5);
+    private final Harness slowHarness = new Harness(1, 3);
+    private final List<Harness.Result> results = new ArrayList<>();
+    private final PrintStream report;
+    private final int kdfIterations;
+
+    private BenchmarkRunner(PrintStream report, int kdfIterations) {
+        this.report = report;
+        this.kdfIterations = kdfIterations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> sizes = Arrays.asList(10_000, 100_000, 1_000_000);
+        Path saveBaseline = null;
+        Path baseline = null;
+        double threshold = 10;
+        int kdfIterations = PasswordHasher.DEFAULT_ITERATIONS;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizes = new ArrayList<>();
+                    for (String size : args[++i].split(",")) sizes.add(Integer.parseInt(size.trim()));
+                    break;
+                case "--save-baseline":
+                    saveBaseline = Paths.get(args[++i]);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(args[++i]);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(args[++i]);
+                    break;
+                case "--kdf-iterations":
+                    kdfIterations = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (!claimWorkingDirectory()) {
+            System.err.println("Working directory holds data files not made by the benchmark; "
+                    + "run from an empty directory.");
+            System.exit(2);
+        }
+
+        // The code under test logs every call; keep that out of the timings and the report
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        BenchmarkRunner runner = new BenchmarkRunner(report, kdfIterations);
+        runner.runAccountOperations();
+        for (int size : sizes) {
+            runner.runQueries(size);
+        }
+        runner.runLogin();
+        clean();
+
+        if (saveBaseline != null) {
+            runner.saveBaseline(saveBaseline);
+            report.println("Baseline written to " + saveBaseline);
+        }
+        if (baseline != null && runner.compare(baseline, threshold) > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Deposits, withdrawals and transfers persist through the journal, so data size barely matters
+    private void runAccountOperations() throws Exception {
+        report.println("== account operations (10000 accounts)");
+        clean();
+        new DataGenerator(SEED).writeAccounts(10_000, 3_000);
+        new DataGenerator(SEED).writeTransactions(10_000, 10_000);
+
+        AccountRepository repo = new AccountRepository();
+        try {
+            // Checking accounts (every third one), which have no withdrawal limits
+            Account a = repo.findById(DataGenerator.accountId(3)).orElseThrow();
+            Account b = repo.findById(DataGenerator.accountId(6)).orElseThrow();
+
+            record(harness.measure("account.deposit", 2_000, i -> a.deposit(100)));
+            record(harness.measure("account.withdraw", 2_000, i -> a.withdraw(100)));
+            record(harness.measure("account.transfer", 2_000, i -> {
+                if (i % 2 == 0) a.transfer(b, 100);
+                else b.transfer(a, 100);
+            }));
+            record(harness.measure("repository.save", 2_000,
+                    i -> repo.save(repo.findById(DataGenerator.accountId(i % 10_000)).orElseThrow())));
+        } finally {
+            repo.close();
+        }
+    }
+
+    private void runQueries(int size) throws Exception {
+        report.println("== queries (" + size + " accounts, " + size + " transactions)");
+        clean();
+        int users = Math.max(1, size / 3);
+        new DataGenerator(SEED).writeAccounts(size, users);
+        new DataGenerator(SEED).writeTransactions(size, size);
+
+        // Loads accounts.csv and transactions.csv into memory
+        record(slowHarness.measure("repository.load@" + size, 1,
+                i -> new AccountRepository().close()));
+
+        AccountRepository repo = new AccountRepository();
+        try {
+            Random random = new Random(SEED);
+            record(harness.measure("repository.findByUserId@" + size, 100_000,
+                    i -> repo.findByUserId(DataGenerator.userId(random.nextInt(users)))));
+            record(harness.measure("repository.findTransactionsByAccountId@" + size, 10_000,
+                    i -> repo.findTransactionsByAccountId(DataGenerator.accountId(random.nextInt(size)))));
+
+            // acct-0 holds a tenth of all transactions
+            AccountHistory history = new AccountHistory(DataGenerator.HOT_ACCOUNT, repo);
+            int historyOps = Math.max(1, 1_000_000 / size);
+            record(harness.measure("history.calculateRunningBalance@" + size, historyOps,
+                    i -> history.calculateRunningBalance(0)));
+            record(harness.measure("history.getSummary@" + size, 10_000, i -> history.getSummary()));
+        } finally {
+            repo.close();
+        }
+    }
+
+    private void runLogin() throws Exception {
+        report.println("== login (" + kdfIterations + " PBKDF2 iterations)");
+        clean();
+        UserRepository users = new UserRepository();
+        try {
+            PasswordHasher hasher = new PasswordHasher(kdfIterations);
+            try (AuthService auth = new AuthService(users, hasher)) {
+                auth.register("bench@example.com", "correct horse");
+            }
+
+            // A fresh service has an empty verification cache, so every login derives the key
+            record(slowHarness.measure("auth.login.kdf", 10, i -> {
+                try (AuthService cold = new AuthService(users, hasher)) {
+                    cold.login("bench@example.com", "correct horse");
+                }
+            }));
+
+            try (AuthService warm = new AuthService(users, hasher)) {
+                warm.login("bench@example.com", "correct horse");
+                record(harness.measure("auth.login.cached", 10_000,
+                        i -> warm.login("bench@example.com", "correct horse")));
+            }
+        } finally {
+            users.close();
+        }
+    }
+
+    private void record(Harness.Result result) {
+        results.add(result);
+        report.printf("%-48s %14.1f ns/op  (min %.1f, %d ops)%n",
+                result.name, result.nanosPerOp, result.minNanosPerOp, result.operations);
+    }
+
+    private void saveBaseline(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("benchmark,nanosPerOp");
+        for (Harness.Result result : results) {
+            lines.add(result.name + "," + result.nanosPerOp);
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Prints each result next to its baseline. Returns how many regressed past the threshold.
+     */
+    private int compare(Path file, double thresholdPercent) throws IOException {
+        Map<String, Double> stored = new HashMap<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+            String[] parts = line.split(",");
+            if (parts.length == 2) stored.put(parts[0], Double.parseDouble(parts[1]));
+        }
+
+        report.println("== compared with " + file);
+        int regressions = 0;
+        for (Harness.Result result : results) {
+            Double before = stored.get(result.name);
+            if (before == null) {
+                report.printf("%-48s %14s%n", result.name, "new");
+                continue;
+            }
+            double change = (result.nanosPerOp - before) / before * 100;
+            boolean regressed = change > thresholdPercent;
+            if (regressed) regressions++;
+            report.printf("%-48s %+13.1f%%%s%n", result.name, change, regressed ? "  REGRESSION" : "");
+        }
+        report.println(regressions == 0 ? "No regressions." : regressions + " regression(s).");
+        return regressions;
+    }
+
+    // Only take over a directory that is empty of data files or was set up by an earlier run
+    static boolean claimWorkingDirectory() throws IOException {
+        Path marker = Paths.get(MARKER);
+        if (!Files.exists(marker)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."))) {
+                for (Path file : files) {
+                    if (isDataFile(file)) return false;
+                }
+            }
+            Files.createFile(marker);
+        }
+        return true;
+    }
+
+    static void clean() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get("."))) {
+            for (Path file : files) {
+                if (isDataFile(file)) Files.delete(file);
+            }
+        }
+    }
+
+    private static boolean isDataFile(Path file) {
+        String name = file.getFileName().toString();
+        for (String prefix : DATA_PREFIXES) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import domain.Money;
+import domain.TransactionType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes synthetic accounts.csv and transactions.csv files in the formats the repositories
+ * read. Output depends only on the sizes and the seed, so runs compare like with like.
+ *
+ * Account i is {@code acct-i}, owned by {@code user-(i % users)}. Every tenth transaction
+ * belongs to {@link #HOT_ACCOUNT}, so there is always one long history to query; the rest
+ * are spread evenly over the other accounts.
+ */
+class DataGenerator {
+    static final String HOT_ACCOUNT = "acct-0";
+    private static final String[] ACCOUNT_TYPES = {"Checking", "Savings", "Investment"};
+    private static final TransactionType[] TYPES = {
+            TransactionType.DEPOSIT, TransactionType.WITHDRAWAL,
+            TransactionType.INTERNAL_TRANSFER, TransactionType.EXTERNAL_TRANSFER
+    };
+    // One transaction a minute, ending now
+    private static final long SPACING_MILLIS = 60_000;
+
+    private final Random random;
+
+    DataGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    static String accountId(int i) {
+        return "acct-" + i;
+    }
+
+    static String userId(int i) {
+        return "user-" + i;
+    }
+
+    void writeAccounts(int accounts, int users) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get("accounts.csv"), StandardCharsets.UTF_8)) {
+            out.write("accountId,userId,accountType,balance\n");
+            StringBuilder line = new StringBuilder(64);
+            for (int i = 0; i < accounts; i++) {
+                line.setLength(0);
+                line.append(accountId(i)).append(',')
+                        .append(userId(i % users)).append(',')
+                        .append(ACCOUNT_TYPES[i % ACCOUNT_TYPES.length]).append(',');
+                Money.appendTo(line, 1_000_000 + random.nextInt(10_000_000)).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    void writeTransactions(int transactions, int accounts) throws IOException {
+        long first = System.currentTimeMillis() - transactions * SPACING_MILLIS;
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get("transactions.csv"), StandardCharsets.UTF_8)) {
+            out.write("transactionType,amount,sourceAccountId,targetAccountId,timestamp\n");
+            StringBuilder line = new StringBuilder(96);
+            for (int i = 0; i < transactions; i++) {
+                int source = i % 10 == 0 || accounts == 1 ? 0 : 1 + random.nextInt(accounts - 1);
+                TransactionType type = TYPES[random.nextInt(TYPES.length)];
+                boolean transfer = type == TransactionType.INTERNAL_TRANSFER
+                        || type == TransactionType.EXTERNAL_TRANSFER;
+
+                line.setLength(0);
+                line.append(type).append(',');
+                Money.appendTo(line, 100 + random.nextInt(100_000)).append(',')
+                        .append(accountId(source)).append(',');
+                if (transfer) line.append(accountId(random.nextInt(accounts)));
+                line.append(',').append(first + i * SPACING_MILLIS).append('\n');
+                out.append(line);
+            }
+        }
+    }
+}
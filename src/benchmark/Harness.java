@@ -0,0 +1,61 @@
+package benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Times an operation over a few warm-up rounds and then several measured rounds.
+ *
+ * The reported figure is the median of the measured rounds' nanoseconds per operation,
+ * which is steadier between runs than the mean when a GC or a checkpoint lands in one round.
+ */
+class Harness {
+    interface Op {
+        void run(int i) throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final long operations;
+        final double nanosPerOp;
+        final double minNanosPerOp;
+
+        Result(String name, long operations, double nanosPerOp, double minNanosPerOp) {
+            this.name = name;
+            this.operations = operations;
+            this.nanosPerOp = nanosPerOp;
+            this.minNanosPerOp = minNanosPerOp;
+        }
+    }
+
+    private final int warmupRounds;
+    private final int measuredRounds;
+
+    Harness(int warmupRounds, int measuredRounds) {
+        this.warmupRounds = warmupRounds;
+        this.measuredRounds = measuredRounds;
+    }
+
+    /**
+     * Runs {@code op} {@code opsPerRound} times per round, passing the index within the round.
+     */
+    Result measure(String name, int opsPerRound, Op op) throws Exception {
+        for (int round = 0; round < warmupRounds; round++) {
+            runRound(opsPerRound, op);
+        }
+
+        double[] perOp = new double[measuredRounds];
+        for (int round = 0; round < measuredRounds; round++) {
+            perOp[round] = (double) runRound(opsPerRound, op) / opsPerRound;
+        }
+        Arrays.sort(perOp);
+        return new Result(name, (long) opsPerRound * measuredRounds, perOp[perOp.length / 2], perOp[0]);
+    }
+
+    private static long runRound(int ops, Op op) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            op.run(i);
+        }
+        return System.nanoTime() - start;
+    }
+}
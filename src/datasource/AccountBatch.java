@@ -0,0 +1,116 @@
+package datasource;
+
+import domain.Account;
+
+import java.util.*;
+
+/**
+ * A unit of work over several accounts, created by {@link AccountRepository#beginBatch()}.
+ *
+ * Operations are only recorded until {@link #commit()}. Commit then locks every account
+ * involved, runs the operations through the normal Account methods (so overdraft and
+ * withdrawal limits still apply), and writes the result in one journal group and one
+ * transactions.csv flush. If any operation fails, the balances changed so far are put
+ * back and nothing is written.
+ */
+public class AccountBatch {
+    private final AccountRepository repository;
+    private final List<Operation> operations = new ArrayList<>();
+    private final Set<String> accountIds = new HashSet<>();
+
+    private boolean committed = false;
+
+    AccountBatch(AccountRepository repository) {
+        this.repository = repository;
+    }
+
+    private static class Operation {
+        final String description;
+        final Runnable apply;
+        final Runnable undo;
+
+        Operation(String description, Runnable apply, Runnable undo) {
+            this.description = description;
+            this.apply = apply;
+            this.undo = undo;
+        }
+    }
+
+    public AccountBatch deposit(Account account, long amountCents) {
+        return add(new Operation("deposit to " + account.getAccountId(),
+                () -> account.deposit(amountCents),
+                () -> account.undoDeposit(amountCents)), account);
+    }
+
+    public AccountBatch withdraw(Account account, long amountCents) {
+        return add(new Operation("withdrawal from " + account.getAccountId(),
+                () -> account.withdraw(amountCents),
+                () -> account.undoWithdrawal(amountCents)), account);
+    }
+
+    public AccountBatch transfer(Account source, Account target, long amountCents) {
+        return add(new Operation("transfer from " + source.getAccountId(),
+                () -> source.transfer(target, amountCents),
+                () -> {
+                    target.undoDeposit(amountCents);
+                    source.undoWithdrawal(amountCents);
+                }), source, target);
+    }
+
+    public AccountBatch pay(Account source, Account target, long amountCents) {
+        return add(new Operation("payment from " + source.getAccountId(),
+                () -> source.pay(target, amountCents),
+                () -> {
+                    target.undoDeposit(amountCents);
+                    source.undoWithdrawal(amountCents);
+                }), source, target);
+    }
+
+    private AccountBatch add(Operation operation, Account... accounts) {
+        if (committed) throw new IllegalStateException("Batch has already been committed.");
+        operations.add(operation);
+        for (Account account : accounts) {
+            accountIds.add(account.getAccountId());
+        }
+        return this;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies every operation or none of them.
+     *
+     * @throws IllegalStateException if an operation is rejected; the batch is rolled back.
+     *                               Also thrown, changing nothing, when called from inside
+     *                               another batch or a transfer.
+     */
+    public void commit() {
+        if (committed) throw new IllegalStateException("Batch has already been committed.");
+        // The outer unit would write this batch's changes, and could not roll them back
+        if (repository.inAtomicUnit()) throw new IllegalStateException("Batches cannot be nested.");
+        committed = true;
+        if (operations.isEmpty()) return;
+
+        repository.runAtomically(accountIds, () -> {
+            Deque<Operation> applied = new ArrayDeque<>();
+            try {
+                for (Operation operation : operations) {
+                    operation.apply.run();
+                    applied.push(operation);
+                }
+            } catch (RuntimeException e) {
+                Operation failed = operations.get(applied.size());
+
+                // No other unit can touch these accounts, and each undo is applied as a
+                // delta, so a single-account change that landed meanwhile is kept
+                while (!applied.isEmpty()) {
+                    applied.pop().undo.run();
+                }
+                throw new IllegalStateException("Batch rolled back: " + failed.description +
+                        " failed: " + e.getMessage(), e);
+            }
+        });
+    }
+}
@@ -0,0 +1,87 @@
+package datasource;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped per-account locks. Each account id hashes to one of a fixed set of
+ * reentrant locks, so unrelated accounts rarely contend and memory stays bounded
+ * no matter how many accounts exist.
+ *
+ * Operations that touch two accounts must use {@link #lockBoth}: it always takes
+ * the lower stripe first, so two opposite transfers can never deadlock.
+ */
+public class AccountLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public AccountLocks() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    public AccountLocks(int minimumStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    private int stripeIndex(String accountId) {
+        int h = accountId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public ReentrantLock lockFor(String accountId) {
+        return stripes[stripeIndex(accountId)];
+    }
+
+    public void lock(String accountId) {
+        lockFor(accountId).lock();
+    }
+
+    public void unlock(String accountId) {
+        lockFor(accountId).unlock();
+    }
+
+    public void lockBoth(String firstId, String secondId) {
+        int a = stripeIndex(firstId);
+        int b = stripeIndex(secondId);
+        stripes[Math.min(a, b)].lock();
+        if (a != b) {
+            stripes[Math.max(a, b)].lock();
+        }
+    }
+
+    /**
+     * Locks every stripe the given accounts hash to, lowest stripe first.
+     * Returns the stripes taken; hand them back to {@link #unlockAll}.
+     */
+    public int[] lockAll(Collection<String> accountIds) {
+        int[] taken = accountIds.stream()
+                .mapToInt(this::stripeIndex)
+                .distinct()
+                .sorted()
+                .toArray();
+        for (int stripe : taken) {
+            stripes[stripe].lock();
+        }
+        return taken;
+    }
+
+    public void unlockAll(int[] taken) {
+        for (int i = taken.length - 1; i >= 0; i--) {
+            stripes[taken[i]].unlock();
+        }
+    }
+
+    public void unlockBoth(String firstId, String secondId) {
+        int a = stripeIndex(firstId);
+        int b = stripeIndex(secondId);
+        if (a != b) {
+            stripes[Math.max(a, b)].unlock();
+        }
+        stripes[Math.min(a, b)].unlock();
+    }
+}
@@ -1,28 +1,186 @@
 package datasource;
 
 import domain.*;
+import metrics.Metrics;
+import metrics.OperationStats;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public class AccountRepository {
     private static final String FILE_PATH = "accounts.csv";
+    private static final String JOURNAL_FILE_PATH = "accounts.journal";
+    // Progress of maintenance runs as of the last accounts checkpoint; later marks are in the journal
+    private static final String RUN_MARKERS_FILE_PATH = "accounts.markers";
     private static final String TRANSACTIONS_FILE_PATH = "transactions.csv";
+    private static final String TRANSACTIONS_BIN_PATH = BinaryTransactionStore.DEFAULT_FILE_PATH;
+    // transactions.csv set aside while a checkpoint folds it into the binary store
+    private static final String TRANSACTIONS_SEGMENT_PATH = TRANSACTIONS_FILE_PATH + ".old";
+    private static final String TRANSACTIONS_HEADER = "transactionType,amount,sourceAccountId,targetAccountId,timestamp";
+    // Journal records accumulated before a background checkpoint rewrites accounts.csv
+    private static final int CHECKPOINT_THRESHOLD = 1000;
+    private static final String TOMBSTONES_FILE_PATH = "transactions.tombstones";
+    // Deletions arriving close together are compacted in one pass
+    private static final long COMPACTION_DELAY_MILLIS = 5_000;
+    // How often the checkpoint thread looks for work
+    private static final long CHECKPOINT_PERIOD_MILLIS = 30_000;
+    // Size of the transactions.csv tail worth folding into the binary store
+    private static final long TRANSACTIONS_CHECKPOINT_BYTES = 1 << 20;
 
-    // Stores all accounts, key is AccountId
-    private final Map<String, Account> accountCache = new HashMap<>();
-    // Stores transactions in memory grouped by accountId
-    private final Map<String, List<Transaction>> transactionStorage = new HashMap<>();
+    // Latency of the write paths and of the file loads and rewrites, see metrics.Metrics
+    private static final OperationStats SAVE_STATS = Metrics.operation("accounts.save");
+    private static final OperationStats SAVE_TRANSACTION_STATS = Metrics.operation("transactions.save");
+    private static final OperationStats FIND_TRANSACTIONS_STATS = Metrics.operation("transactions.find");
+    private static final OperationStats SAVE_ALL_STATS = Metrics.operation("accounts.saveAll");
+    private static final OperationStats LOAD_ACCOUNTS_STATS = Metrics.operation("accounts.loadCsv");
+    private static final OperationStats WRITE_ACCOUNTS_STATS = Metrics.operation("accounts.writeCsv");
+    private static final OperationStats LOAD_TRANSACTIONS_STATS = Metrics.operation("transactions.load");
+    private static final OperationStats CHECKPOINT_TRANSACTIONS_STATS = Metrics.operation("transactions.checkpoint");
+    private static final OperationStats COMPACT_TRANSACTIONS_STATS = Metrics.operation("transactions.compact");
+
+    // Stores all accounts, key is AccountId (concurrent so checkpoints can snapshot it)
+    private final Map<String, Account> accountCache = new ConcurrentHashMap<>();
+    // Secondary index: userId -> (accountId -> Account), kept in step with accountCache
+    private final Map<String, Map<String, Account>> accountsByUserId = new ConcurrentHashMap<>();
+    // The binary files holding all history up to the last transactions checkpoint
+    private final TransactionArchive archive = new TransactionArchive(Paths.get(TRANSACTIONS_BIN_PATH));
+    // Reads history per account on demand and keeps what it read
+    private final LazyTransactionHistory lazyHistory;
+    // Appends share this lock; compaction and checkpoints take it exclusively to swap history files
+    private final ReadWriteLock historyLock = new ReentrantReadWriteLock();
+
+    // Maintenance runs' progress by run name, see progressLog
+    private final Map<String, RunProgressLog> runs = new ConcurrentHashMap<>();
+
+    // Per-account locks used by Account for balance changes and transfers
+    private final AccountLocks accountLocks = new AccountLocks();
+
+    private final ChangeJournal journal = new ChangeJournal(JOURNAL_FILE_PATH, 4);
+
+    private final TransactionLogWriter transactionLog;
+
+    // Deleted accounts whose rows are still in the history files
+    private final TransactionTombstones tombstones = new TransactionTombstones(TOMBSTONES_FILE_PATH);
+
+    // Background snapshot and compaction work for accounts and transactions
+    private final CheckpointScheduler checkpoints;
+    // False when the scheduler is shared through DataContext, which shuts it down itself
+    private final boolean ownsCheckpoints;
+    private final CheckpointScheduler.Task accountsCheckpoint = new CheckpointScheduler.Task() {
+        public boolean isDue() { return journal.recordsSinceCheckpoint() > 0 || journal.hasRetired(); }
+        public void run() { checkpoint(); }
+    };
+    private final CheckpointScheduler.Task transactionsCheckpoint = new CheckpointScheduler.Task() {
+        public boolean isDue() { return transactionLog.size() >= TRANSACTIONS_CHECKPOINT_BYTES; }
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                if (!checkpointTransactions()) CHECKPOINT_TRANSACTIONS_STATS.recordError();
+            } catch (RuntimeException e) {
+                CHECKPOINT_TRANSACTIONS_STATS.recordError();
+                throw e;
+            } finally {
+                CHECKPOINT_TRANSACTIONS_STATS.record(start);
+            }
+        }
+    };
+    private final CheckpointScheduler.Task transactionsCompaction = new CheckpointScheduler.Task() {
+        public boolean isDue() { return false; } // only runs when a deletion requests it
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                if (!compactTransactions()) COMPACT_TRANSACTIONS_STATS.recordError();
+            } catch (RuntimeException e) {
+                COMPACT_TRANSACTIONS_STATS.recordError();
+                throw e;
+            } finally {
+                COMPACT_TRANSACTIONS_STATS.record(start);
+            }
+        }
+    };
+
+    // Set while runAtomically runs on this thread; saves are staged instead of written
+    private final ThreadLocal<Staged> activeUnit = new ThreadLocal<>();
+
+    // What a unit of work has saved so far, written in one pass when it finishes
+    private static final class Staged {
+        final Map<String, Account> accounts = new LinkedHashMap<>();
+        final List<Transaction> transactions = new ArrayList<>();
+    }
 
     public AccountRepository() {
+        this(DurabilityPolicy.everyMillis(50));
+    }
+
+    public AccountRepository(DurabilityPolicy transactionDurability) {
+        this(transactionDurability, 0);
+    }
+
+    /**
+     * @param historyCacheSize History is only indexed at startup, and an account's is read from
+     *                         disk the first time it is asked for. 0 keeps every history read
+     *                         in memory; a positive value keeps at most that many accounts'.
+     */
+    public AccountRepository(DurabilityPolicy transactionDurability, int historyCacheSize) {
+        this(transactionDurability, historyCacheSize, null);
+    }
+
+    // DataContext passes the scheduler it shares between repositories; null starts a private one
+    AccountRepository(DurabilityPolicy transactionDurability, int historyCacheSize,
+                      CheckpointScheduler sharedCheckpoints) {
+        if (historyCacheSize < 0) {
+            throw new IllegalArgumentException("History cache size must not be negative.");
+        }
+        this.ownsCheckpoints = sharedCheckpoints == null;
+        this.checkpoints = sharedCheckpoints != null ? sharedCheckpoints
+                : new CheckpointScheduler("datasource-checkpoint", CHECKPOINT_PERIOD_MILLIS);
+        long loadStart = System.nanoTime();
         loadDataFromCsv();
-        loadTransactionsFromCsv();
+        LOAD_ACCOUNTS_STATS.record(loadStart);
+        loadRunMarkers();
+        int replayed = journal.replay(this::applyJournalRecord);
+        journal.open();
+        if (replayed > 0) {
+            scheduleCheckpoint();
+        }
+
+        tombstones.load();
+        // Crash recovery: finish folding a segment an interrupted checkpoint set aside,
+        // so only rows written since the last checkpoint are left in transactions.csv
+        foldTransactionSegment();
+        ensureTransactionsFileExists();
+        transactionLog = new TransactionLogWriter(
+                TRANSACTIONS_FILE_PATH, TRANSACTIONS_HEADER, transactionDurability);
+        loadStart = System.nanoTime();
+        lazyHistory = new LazyTransactionHistory(Paths.get(TRANSACTIONS_FILE_PATH),
+                Paths.get(TRANSACTIONS_SEGMENT_PATH), archive,
+                historyCacheSize, transactionLog::flush, tombstones);
+        lazyHistory.rebuild();
+        LOAD_TRANSACTIONS_STATS.record(loadStart);
+        if (!tombstones.isEmpty()) {
+            scheduleCompaction();
+        }
+        checkpoints.register(accountsCheckpoint);
+        checkpoints.register(transactionsCheckpoint);
     }
 
     private Account createAccountInstance(String accountId, String userId,
-                                          String accountType, double balance,
+                                          String accountType, long balance,
                                           AccountRepository repo) {
         switch (accountType) {
             case "Checking":
@@ -59,12 +217,12 @@ public class AccountRepository {
                     String accountId = parts[0];
                     String userId = parts[1];
                     String type = parts[2];
-                    double balance = Double.parseDouble(parts[3]);
+                    long balance = Money.parse(parts[3]);
 
                     Account loadedAccount = createAccountInstance(
                             accountId, userId, type, balance, this);
 
-                    accountCache.put(accountId, loadedAccount);
+                    cacheAccount(loadedAccount);
                 }
             }
         } catch (Exception e) {
@@ -73,26 +231,102 @@ public class AccountRepository {
         }
     }
 
-    private void writeDataToCsv() {
+    // Writes the full snapshot next to accounts.csv and renames it over the old one,
+    // so a crash mid-write never leaves a half-written accounts.csv behind.
+    // Returns false if the snapshot couldn't be written or swapped in.
+    private boolean writeDataToCsv() {
         List<String> lines = accountCache.values().stream()
                 .map(Account::toCsvString)
                 .collect(Collectors.toList());
 
         lines.add(0, "accountId,userId,accountType,balance");
 
+        Path path = Paths.get(FILE_PATH);
+        Path tmp = Paths.get(FILE_PATH + ".tmp");
         try {
-            Files.write(Paths.get(FILE_PATH), lines, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.write(tmp, lines);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
         } catch (IOException e) {
             System.err.println("Error writing accounts to CSV: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void applyJournalRecord(String[] parts) {
+        if (ChangeJournal.DELETE.equals(parts[0])) {
+            uncacheAccount(parts[1]);
+            return;
+        }
+        if (ChangeJournal.MARKER.equals(parts[0])) {
+            applyRunMarker(progressLog(parts[1]), parts[2]);
+            return;
+        }
+
+        try {
+            Account account = createAccountInstance(
+                    parts[1], parts[2], parts[3], Money.parse(parts[4]), this);
+            cacheAccount(account);
+        } catch (NumberFormatException e) {
+            System.err.println("Skipping malformed journal record for " + parts[1]);
+        }
+    }
+
+    // Journal records hold the account's full row, so replaying one twice is harmless.
+    // The row is read inside the journal's lock: balances change without locks, and the
+    // last record written for an account must reflect every update that preceded it.
+    private void journalUpsert(Account account) {
+        journal.append(() -> ChangeJournal.UPSERT + "," + account.toCsvString());
+        maybeCheckpoint();
+    }
+
+    private void journalUpsertAll(Collection<? extends Account> accounts, List<String> markers) {
+        List<Supplier<String>> records = new ArrayList<>(accounts.size() + markers.size());
+        for (Account account : accounts) {
+            records.add(() -> ChangeJournal.UPSERT + "," + account.toCsvString());
+        }
+        for (String marker : markers) {
+            records.add(() -> marker);
+        }
+        journal.appendAll(records);
+        maybeCheckpoint();
+    }
+
+    private void journalDelete(String accountId) {
+        journal.append(ChangeJournal.DELETE + "," + accountId);
+        maybeCheckpoint();
+    }
+
+    private void maybeCheckpoint() {
+        if (journal.recordsSinceCheckpoint() >= CHECKPOINT_THRESHOLD) {
+            scheduleCheckpoint();
         }
     }
 
+    private void scheduleCheckpoint() {
+        checkpoints.request(accountsCheckpoint);
+    }
+
+    // Folds the journal into accounts.csv on the background thread. Saves made while the
+    // snapshot is written land in the fresh journal and are replayed on top of it.
+    // The set-aside journal is only deleted once the snapshot and the run markers are both
+    // in place; otherwise it stays for replay and the next checkpoint folds it in again.
+    private void checkpoint() {
+        if (!journal.rotate()) return;
+
+        long start = System.nanoTime();
+        boolean written = writeDataToCsv();
+        if (!written) WRITE_ACCOUNTS_STATS.recordError();
+        WRITE_ACCOUNTS_STATS.record(start);
+        if (writeRunMarkers() && written) journal.retire();
+    }
+
     private void ensureTransactionsFileExists() {
         Path path = Paths.get(TRANSACTIONS_FILE_PATH);
         if (!Files.exists(path)) {
             try {
                 Files.writeString(path,
-                        "transactionType,amount,sourceAccountId,targetAccountId\n",
+                        TRANSACTIONS_HEADER + "\n",
                         StandardOpenOption.CREATE_NEW);
             } catch (IOException e) {
                 System.err.println("Error creating transactions.csv: " + e.getMessage());
@@ -100,113 +334,674 @@ public class AccountRepository {
         }
     }
 
-    private void loadTransactionsFromCsv() {
-        Path path = Paths.get(TRANSACTIONS_FILE_PATH);
-        if (!Files.exists(path)) {
-            ensureTransactionsFileExists();
-            return;
+    // Reads every row of the set-aside segment, with the ids the history readers give them.
+    // Any read error is passed on, so a fold never goes ahead with part of the segment.
+    private static void readSegment(Path path, Consumer<Transaction> sink) throws IOException {
+        // Rows written before timestamps were stored have only four columns. They are
+        // held back and given the time of the next dated row, which keeps them in file order.
+        List<String[]> undated = new ArrayList<>();
+
+        LazyTransactionHistory.forEachRow(path, (bytes, length, offset) -> {
+            String line = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            if (line.isBlank()) return;
+
+            // keep empty last column, then trim
+            String[] parts = line.split(",", -1);
+            if (parts.length < 4) return;
+
+            String timestampRaw = parts.length > 4 ? parts[4].trim() : "";
+            if (timestampRaw.isEmpty()) {
+                undated.add(withOffset(parts, offset));
+                return;
+            }
+
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(timestampRaw);
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping malformed transaction row at offset " + offset + ": " + e.getMessage());
+                return;
+            }
+            for (String[] legacy : undated) {
+                acceptSegmentRow(sink, legacy, segmentRowId(legacy), timestamp);
+            }
+            undated.clear();
+            acceptSegmentRow(sink, parts, LazyTransactionHistory.rowId(true, offset), timestamp);
+        });
+
+        long loadedAt = System.currentTimeMillis();
+        for (String[] legacy : undated) {
+            acceptSegmentRow(sink, legacy, segmentRowId(legacy), loadedAt);
         }
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            reader.readLine(); // skip header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isBlank()) continue;
+    // Malformed rows are skipped, as the CSV loader always did
+    private static void acceptSegmentRow(Consumer<Transaction> sink, String[] parts, String id, long timestamp) {
+        Transaction transaction;
+        try {
+            transaction = parseTransactionRow(parts, id, timestamp);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping malformed transaction row " + id + ": " + e.getMessage());
+            return;
+        }
+        sink.accept(transaction);
+    }
 
-                // keep empty last column, then trim
-                String[] parts = line.split(",", -1);
-                if (parts.length < 4) continue;
+    // --- Transaction checkpoints ---
 
-                String typeStr = parts[0].trim();
-                String amountStr = parts[1].trim();
-                String sourceId = parts[2].trim();
-                String targetRaw = parts[3].trim();
-                String targetId = targetRaw.isEmpty() ? null : targetRaw;
+    // Runs on the checkpoint thread. transactions.csv is swapped for a fresh file under the
+    // history write lock, which only takes a flush and a rename; the slow part, rebuilding
+    // the binary store with the set-aside rows, happens while appends carry on.
+    // Returns false if the file couldn't be rotated or the segment folded.
+    private boolean checkpointTransactions() {
+        historyLock.writeLock().lock();
+        try {
+            if (!Files.exists(Paths.get(TRANSACTIONS_SEGMENT_PATH))) {
+                // Rows the writer couldn't write yet would otherwise land in the fresh file
+                if (!transactionLog.flush()) return false;
+                Files.move(Paths.get(TRANSACTIONS_FILE_PATH), Paths.get(TRANSACTIONS_SEGMENT_PATH),
+                        StandardCopyOption.ATOMIC_MOVE);
+                transactionLog.reopen();
+                lazyHistory.segmentRotated();
+            }
+        } catch (IOException e) {
+            System.err.println("Error rotating " + TRANSACTIONS_FILE_PATH + ": " + e.getMessage());
+            return false;
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+        return foldTransactionSegment();
+    }
 
-                TransactionType type = TransactionType.valueOf(typeStr);
-                double amount = Double.parseDouble(amountStr);
+    // Writes the set-aside segment as a new archive file, swaps it in and retires the segment.
+    // Only the segment is read and written, however long the history is. Safe to repeat: a
+    // segment the newest file was already built from is only deleted. Returns false if a
+    // segment is left over.
+    private boolean foldTransactionSegment() {
+        Path segment = Paths.get(TRANSACTIONS_SEGMENT_PATH);
+        if (!Files.exists(segment)) return true;
 
-                Transaction txn = new Transaction(type, amount, sourceId, targetId);
+        TransactionArchive.Prepared folded = null;
+        try {
+            long length = Files.size(segment);
+            int crc = checksum(segment);
+            if (!archive.holdsSegment(length, crc)) {
+                List<Transaction> rows = new ArrayList<>();
+                readSegment(segment, transaction -> {
+                    if (!tombstones.covers(transaction)) rows.add(transaction);
+                });
+                folded = archive.prepareFold(rows, length, crc);
+            }
+        } catch (IOException e) {
+            System.err.println("Error folding " + TRANSACTIONS_SEGMENT_PATH + ": " + e.getMessage());
+            archive.discard(folded);
+            return false;
+        }
 
-                transactionStorage
-                        .computeIfAbsent(sourceId, k -> new ArrayList<>())
-                        .add(txn);
+        historyLock.writeLock().lock();
+        try {
+            if (folded != null) archive.install(folded);
+            Files.delete(segment);
+            // Null while the constructor recovers a segment; the history is indexed afterwards
+            if (lazyHistory != null) lazyHistory.segmentFolded();
+        } catch (IOException e) {
+            System.err.println("Error swapping in " + TRANSACTIONS_SEGMENT_PATH + ": " + e.getMessage());
+            return false;
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+        mergeArchive();
+        return true;
+    }
 
-                // Debug:
-                System.out.println("Loaded txn: " + type + " " + amount +
-                        " for " + sourceId + " -> storage size now " +
-                        transactionStorage.get(sourceId).size());
+    private static int checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(path), crc)) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) != -1) {
+                // the stream updates the checksum
             }
-        } catch (Exception e) {
-            System.err.println("Error loading transactions from CSV: " + e.getMessage());
-            e.printStackTrace();
         }
+        return (int) crc.getValue();
     }
 
+    // Merges the newest archive files while they are about the same size. Readers see the
+    // same records before and after, so the history lock isn't needed.
+    private void mergeArchive() {
+        while (true) {
+            TransactionArchive.Prepared merged = null;
+            try {
+                merged = archive.prepareMergeIfDue();
+                if (merged == null) return;
+                archive.install(merged);
+            } catch (IOException e) {
+                System.err.println("Error merging " + TRANSACTIONS_BIN_PATH + " files: " + e.getMessage());
+                archive.discard(merged);
+                return;
+            }
+            if (lazyHistory != null) lazyHistory.archiveMerged();
+        }
+    }
 
-    private void appendTransactionToCsv(Transaction transaction) {
-        ensureTransactionsFileExists();
+    // Keeps the row's offset in slot 4 so it can be given its id once it is dated
+    private static String[] withOffset(String[] parts, long offset) {
+        String[] row = Arrays.copyOf(parts, 5);
+        row[4] = Long.toString(offset);
+        return row;
+    }
 
-        String target = transaction.getTargetAccountId();
-        if (target == null) target = "";
+    private static String segmentRowId(String[] legacy) {
+        return LazyTransactionHistory.rowId(true, Long.parseLong(legacy[4]));
+    }
 
-        String line = String.format(
-                "%s,%s,%s,%s%n",
-                transaction.getType().name(),
-                transaction.getAmount(),
-                transaction.getSourceAccountId(),
-                target
+    static Transaction parseTransactionRow(String[] parts, String id, long timestamp) {
+        String targetRaw = parts[3].trim();
+        return new Transaction(
+                id,
+                TransactionType.valueOf(parts[0].trim()),
+                Money.parse(parts[1]),
+                new Date(timestamp),
+                parts[2].trim(),
+                targetRaw.isEmpty() ? null : targetRaw
         );
+    }
 
-        try {
-            Files.write(Paths.get(TRANSACTIONS_FILE_PATH),
-                    line.getBytes(),
-                    StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            System.err.println("Error writing transaction to CSV: " + e.getMessage());
-        }
+    // Every change to accountCache goes through these two so the userId index never drifts.
+    // The index is updated inside the cache's compute, which holds the account's entry, so
+    // concurrent saves and deletes of one account apply to both maps in the same order.
+    private void cacheAccount(Account account) {
+        accountCache.compute(account.getAccountId(), (accountId, previous) -> {
+            if (previous != null && !previous.getUserId().equals(account.getUserId())) {
+                removeFromUserIndex(previous);
+            }
+            accountsByUserId.compute(account.getUserId(), (userId, accounts) -> {
+                Map<String, Account> updated = accounts != null ? accounts : new ConcurrentHashMap<>();
+                updated.put(accountId, account);
+                return updated;
+            });
+            return account;
+        });
+    }
+
+    private Account uncacheAccount(String accountId) {
+        Account[] removed = new Account[1];
+        accountCache.computeIfPresent(accountId, (id, account) -> {
+            removeFromUserIndex(account);
+            removed[0] = account;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void removeFromUserIndex(Account account) {
+        accountsByUserId.computeIfPresent(account.getUserId(), (userId, accounts) -> {
+            accounts.remove(account.getAccountId());
+            return accounts.isEmpty() ? null : accounts;
+        });
     }
 
     public Optional<Account> findById(String id) {
         return Optional.ofNullable(accountCache.get(id));
     }
 
+    public List<Account> findAll() {
+        return new ArrayList<>(accountCache.values());
+    }
+
     public List<Account> findByUserId(String userId) {
-        return accountCache.values().stream()
-                .filter(account -> account.getUserId().equals(userId))
-                .collect(Collectors.toList());
+        Map<String, Account> accounts = accountsByUserId.get(userId);
+        return accounts == null ? new ArrayList<>() : new ArrayList<>(accounts.values());
+    }
+
+    public AccountLocks getAccountLocks() {
+        return accountLocks;
     }
 
     public void save(Account account) {
-        accountCache.put(account.getAccountId(), account);
-        writeDataToCsv();
+        Staged staged = activeUnit.get();
+        if (staged != null) {
+            staged.accounts.put(account.getAccountId(), account);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            cacheAccount(account);
+            journalUpsert(account);
+        } catch (RuntimeException e) {
+            SAVE_STATS.recordError();
+            throw e;
+        } finally {
+            SAVE_STATS.record(start);
+        }
     }
 
+    private TransactionTimeline timelineFor(String id) {
+        return lazyHistory.timeline(id);
+    }
+
+    // Keeps the in-memory history in step with a row just handed to the transaction log
+    private void storeAppended(Transaction transaction, long offset) {
+        if (tombstones.covers(transaction)) return;
+        lazyHistory.appended(transaction, offset);
+    }
+
+    // Returns a copy, so callers may sort or filter it while other sessions keep appending
     public List<Transaction> findTransactionsByAccountId(String id) {
-        List<Transaction> txs = transactionStorage.getOrDefault(id, new ArrayList<>());
-        System.out.println("History lookup for " + id + " -> " + txs.size() + " transactions");
-        return transactionStorage.getOrDefault(id, new ArrayList<>());
+        long start = System.nanoTime();
+        try {
+            TransactionTimeline stored = timelineFor(id);
+            return stored == null ? new ArrayList<>() : stored.toList();
+        } catch (RuntimeException e) {
+            FIND_TRANSACTIONS_STATS.recordError();
+            throw e;
+        } finally {
+            FIND_TRANSACTIONS_STATS.record(start);
+        }
+    }
+
+    /**
+     * Opens a cursor that reads the account's transactions from disk one at a time,
+     * in the order they were saved. The caller must close it.
+     */
+    public TransactionCursor openTransactionCursor(String id) {
+        // The rows the index has now are read; the flush afterwards puts any still buffered by
+        // the log writer in the file. The read lock keeps a checkpoint from swapping files
+        // while the cursor opens them.
+        historyLock.readLock().lock();
+        try {
+            LazyTransactionHistory.Rows rows = lazyHistory.rows(id);
+            if (!transactionLog.flush()) {
+                throw new IOException("buffered transactions could not be written");
+            }
+            return new TransactionCursor(id, archive.acquire(), rows,
+                    Paths.get(TRANSACTIONS_SEGMENT_PATH), Paths.get(TRANSACTIONS_FILE_PATH), tombstones);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read transaction history: " + e.getMessage(), e);
+        } finally {
+            historyLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #openTransactionCursor(String)} as a Stream; close it (try-with-resources)
+     * to release the file. Rows are read lazily as the stream is consumed.
+     */
+    public Stream<Transaction> streamTransactionsByAccountId(String id) {
+        TransactionCursor cursor = openTransactionCursor(id);
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+    /**
+     * Transactions of one account dated in {@code [from, to)}, oldest first.
+     * Uses the account's time index, so the cost depends on the size of the result.
+     */
+    public List<Transaction> findTransactionsByAccountIdBetween(String id, Date from, Date to) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? new ArrayList<>() : stored.range(from.getTime(), to.getTime());
+    }
+
+    /**
+     * Number of the account's transactions dated in [from, to) and, when {@code type} isn't
+     * null, of that type. A null bound is open.
+     */
+    public int countTransactions(String id, Date from, Date to, TransactionType type) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? 0 : stored.count(millisOrMin(from), millisOrMax(to), type);
+    }
+
+    /**
+     * One page of the transactions {@link #countTransactions} counts, sorted by date.
+     * Filtering, ordering and paging are all answered from the timeline index, so only
+     * the requested rows are copied out.
+     */
+    public List<Transaction> findTransactionsPage(String id, Date from, Date to, TransactionType type,
+                                                  boolean newestFirst, int offset, int limit) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? new ArrayList<>()
+                : stored.page(millisOrMin(from), millisOrMax(to), type, newestFirst, offset, limit);
+    }
+
+    private static long millisOrMin(Date date) {
+        return date == null ? Long.MIN_VALUE : date.getTime();
+    }
+
+    private static long millisOrMax(Date date) {
+        return date == null ? Long.MAX_VALUE : date.getTime();
+    }
+
+    public int countTransactionsByAccountId(String id) {
+        // Answered from the index, without loading the history
+        return lazyHistory.count(id);
+    }
+
+    /**
+     * A page of the account's running balance, oldest first, starting from {@code initialBalanceCents}.
+     * The series is kept up to date as transactions are saved, so nothing is recomputed here.
+     */
+    public List<AccountHistory.BalanceSnapshot> findRunningBalances(String id, long initialBalanceCents,
+                                                                    int offset, int limit) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? new ArrayList<>() : stored.runningBalances(initialBalanceCents, offset, limit);
+    }
+
+    /**
+     * Net change to the account's balance from all transactions dated at or before {@code at}.
+     */
+    public long netChangeAsOf(String id, Date at) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? 0 : stored.netChangeAsOf(at.getTime());
+    }
+
+    public long countTransactionsByType(String id, TransactionType type) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? 0 : stored.count(type);
+    }
+
+    /**
+     * Total amount in cents per transaction type for one account. Maintained on every
+     * save, so this costs the same however long the history is.
+     */
+    public Map<String, Long> findTotalsByType(String id) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? new LinkedHashMap<>() : stored.sumsByType();
+    }
+
+    public Map<String, Long> findTotalsByType(String id, YearMonth month) {
+        TransactionTimeline stored = timelineFor(id);
+        return stored == null ? new LinkedHashMap<>() : stored.sumsByType(month);
     }
 
     public void saveTransaction(Transaction transaction) {
-        // Store original transaction for source account
-        transactionStorage
-                .computeIfAbsent(transaction.getSourceAccountId(), k -> new ArrayList<>())
-                .add(transaction);
-        appendTransactionToCsv(transaction);
-
-        // Mirror for target account (if any), same behavior as before
-        if (transaction.getTargetAccountId() != null && !transaction.getTargetAccountId().isEmpty()) {
-            Transaction targetTxn = new Transaction(
-                    transaction.getType(),
-                    transaction.getAmount(),
-                    transaction.getTargetAccountId(),
-                    transaction.getSourceAccountId()
-            );
-            transactionStorage
-                    .computeIfAbsent(transaction.getTargetAccountId(), k -> new ArrayList<>())
-                    .add(targetTxn);
-            appendTransactionToCsv(targetTxn);
+        Staged staged = activeUnit.get();
+        if (staged != null) {
+            staged.transactions.add(transaction);
+            return;
+        }
+
+        long start = System.nanoTime();
+        historyLock.readLock().lock();
+        try {
+            // Store original transaction for source account
+            storeAppended(transaction, transactionLog.append(transaction));
+
+            // Mirror for target account (if any), same behavior as before
+            Transaction targetTxn = mirrorOf(transaction);
+            if (targetTxn != null) {
+                storeAppended(targetTxn, transactionLog.append(targetTxn));
+            }
+        } catch (RuntimeException e) {
+            SAVE_TRANSACTION_STATS.recordError();
+            throw e;
+        } finally {
+            historyLock.readLock().unlock();
+            SAVE_TRANSACTION_STATS.record(start);
+        }
+    }
+
+    private Transaction mirrorOf(Transaction transaction) {
+        if (transaction.getTargetAccountId() == null || transaction.getTargetAccountId().isEmpty()) {
+            return null;
+        }
+        return new Transaction(
+                UUID.randomUUID().toString(),
+                transaction.getType(),
+                transaction.getAmountCents(),
+                transaction.getDate(),
+                transaction.getTargetAccountId(),
+                transaction.getSourceAccountId()
+        );
+    }
+
+    // --- Batches ---
+
+    /**
+     * Starts a unit of work. Stage deposits, withdrawals and transfers on it and call
+     * {@link AccountBatch#commit()} to apply them all with a single journal write and a
+     * single transactions.csv flush, or none of them if any one fails.
+     */
+    public AccountBatch beginBatch() {
+        return new AccountBatch(this);
+    }
+
+    /**
+     * Persists accounts and transactions that were already applied in memory, with one
+     * journal append and one transactions.csv flush. Used by the bulk maintenance runs.
+     */
+    public void saveAll(Collection<? extends Account> accounts, List<Transaction> transactions) {
+        long start = System.nanoTime();
+        try {
+            writeBatch(accounts, transactions, Collections.emptyList());
+        } catch (RuntimeException e) {
+            SAVE_ALL_STATS.recordError();
+            throw e;
+        } finally {
+            SAVE_ALL_STATS.record(start);
+        }
+    }
+
+    /**
+     * Like {@link #saveAll(Collection, List)}, and checks the accounts off in {@code progress}
+     * (marking the whole run complete as well if {@code completesRun}) in the same journal
+     * group, so a crash persists the new balances together with their check marks or neither.
+     */
+    public void saveAll(Collection<? extends Account> accounts, List<Transaction> transactions,
+                        RunProgressLog progress, boolean completesRun) {
+        long start = System.nanoTime();
+        try {
+            List<String> ids = idsOf(accounts);
+            List<String> markers = runMarkers(progress, ids, completesRun);
+
+            // In memory first, like the accounts themselves, so a checkpoint that snapshots
+            // the accounts between the two also snapshots their marks
+            progress.markDone(ids);
+            if (completesRun) progress.markComplete();
+            writeBatch(accounts, transactions, markers);
+        } catch (RuntimeException e) {
+            SAVE_ALL_STATS.recordError();
+            throw e;
+        } finally {
+            SAVE_ALL_STATS.record(start);
+        }
+    }
+
+    /**
+     * Like {@link #saveAll(Collection, List, RunProgressLog, boolean)}, for changes that are
+     * not applied yet. {@code apply} changes the accounts in memory and returns the
+     * transactions recording that. It runs with the journal locked, right before the group is
+     * written, so no other journal record can carry its changes before they are persisted.
+     * If the group can't be written, {@code undo} is handed the same transactions to take the
+     * changes back and the exception is rethrown.
+     *
+     * @return the transactions {@code apply} returned
+     */
+    public List<Transaction> applyAndSaveAll(Collection<? extends Account> accounts,
+                                             Supplier<List<Transaction>> apply,
+                                             Consumer<List<Transaction>> undo,
+                                             RunProgressLog progress, boolean completesRun) {
+        long start = System.nanoTime();
+        try {
+            List<String> ids = idsOf(accounts);
+            List<String> markers = runMarkers(progress, ids, completesRun);
+
+            List<Transaction> applied = journal.whileLocked(() -> {
+                List<Transaction> transactions = apply.get();
+                try {
+                    for (Account account : accounts) {
+                        cacheAccount(account);
+                    }
+                    if (!accounts.isEmpty() || !markers.isEmpty()) {
+                        journalUpsertAll(accounts, markers);
+                    }
+                } catch (RuntimeException e) {
+                    undo.accept(transactions);
+                    throw e;
+                }
+                // Still locked, so no checkpoint can rotate the group away before its marks
+                // are in memory
+                progress.markDone(ids);
+                if (completesRun) progress.markComplete();
+                return transactions;
+            });
+            writeTransactions(applied);
+            return applied;
+        } catch (RuntimeException e) {
+            SAVE_ALL_STATS.recordError();
+            throw e;
+        } finally {
+            SAVE_ALL_STATS.record(start);
+        }
+    }
+
+    private static List<String> idsOf(Collection<? extends Account> accounts) {
+        List<String> ids = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            ids.add(account.getAccountId());
+        }
+        return ids;
+    }
+
+    // The journal records checking off ids in progress, and completing the run if asked
+    private static List<String> runMarkers(RunProgressLog progress, List<String> ids, boolean completesRun) {
+        List<String> markers = new ArrayList<>(2);
+        String prefix = ChangeJournal.MARKER + "," + progress.getRunName() + ",";
+        if (!ids.isEmpty()) {
+            markers.add(prefix + String.join(" ", ids));
+        }
+        if (completesRun) {
+            markers.add(prefix + RunProgressLog.COMPLETE_MARKER);
+        }
+        return markers;
+    }
+
+    /**
+     * The progress of the maintenance run with this name, e.g. "interest-2026-10".
+     */
+    public RunProgressLog progressLog(String runName) {
+        return runs.computeIfAbsent(runName, RunProgressLog::new);
+    }
+
+    private static void applyRunMarker(RunProgressLog progress, String mark) {
+        if (RunProgressLog.COMPLETE_MARKER.equals(mark)) {
+            progress.markComplete();
+        } else {
+            progress.markDone(Arrays.asList(mark.split(" ")));
+        }
+    }
+
+    private void loadRunMarkers() {
+        Path path = Paths.get(RUN_MARKERS_FILE_PATH);
+        if (!Files.exists(path)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",", 2);
+                if (parts.length == 2) {
+                    applyRunMarker(progressLog(parts[0]), parts[1]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading " + RUN_MARKERS_FILE_PATH + ": " + e.getMessage());
+        }
+    }
+
+    // Part of the accounts checkpoint, which keeps the journal holding these marks unless
+    // this returns true
+    private boolean writeRunMarkers() {
+        if (runs.isEmpty()) return true;
+
+        List<String> lines = new ArrayList<>();
+        for (RunProgressLog progress : runs.values()) {
+            if (progress.isComplete()) {
+                lines.add(progress.getRunName() + "," + RunProgressLog.COMPLETE_MARKER);
+                continue;
+            }
+            for (String id : progress.done()) {
+                lines.add(progress.getRunName() + "," + id);
+            }
+        }
+
+        Path path = Paths.get(RUN_MARKERS_FILE_PATH);
+        Path tmp = Paths.get(RUN_MARKERS_FILE_PATH + ".tmp");
+        try {
+            Files.write(tmp, lines);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing " + RUN_MARKERS_FILE_PATH + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Runs {@code operations} holding the locks of the given accounts, taken in stripe order,
+     * and persists everything they save as one unit: the accounts in a single journal group,
+     * which replay applies entirely or not at all, and the transactions in one flush.
+     * If {@code operations} throws, nothing they saved is written; putting back balances
+     * they already changed is up to them.
+     *
+     * Called again from inside {@code operations}, it joins the unit already running.
+     */
+    public void runAtomically(Collection<String> accountIds, Runnable operations) {
+        if (activeUnit.get() != null) {
+            operations.run();
+            return;
+        }
+
+        int[] taken = accountLocks.lockAll(accountIds);
+        try {
+            Staged staged = new Staged();
+            activeUnit.set(staged);
+            try {
+                operations.run();
+            } finally {
+                activeUnit.remove();
+            }
+            writeBatch(staged.accounts.values(), staged.transactions, Collections.emptyList());
+        } finally {
+            accountLocks.unlockAll(taken);
+        }
+    }
+
+    // True while runAtomically runs on this thread
+    boolean inAtomicUnit() {
+        return activeUnit.get() != null;
+    }
+
+    // Persists a unit of work's accounts and transactions in one pass
+    private void writeBatch(Collection<? extends Account> accounts, List<Transaction> transactions,
+                            List<String> markers) {
+        for (Account account : accounts) {
+            cacheAccount(account);
+        }
+        if (!accounts.isEmpty() || !markers.isEmpty()) {
+            journalUpsertAll(accounts, markers);
+        }
+        writeTransactions(transactions);
+    }
+
+    // Appends transactions and their mirrors with one transactions.csv flush
+    private void writeTransactions(List<Transaction> transactions) {
+        if (transactions.isEmpty()) return;
+
+        List<Transaction> rows = new ArrayList<>(transactions.size() * 2);
+        for (Transaction transaction : transactions) {
+            rows.add(transaction);
+            Transaction mirror = mirrorOf(transaction);
+            if (mirror != null) rows.add(mirror);
+        }
+
+        historyLock.readLock().lock();
+        try {
+            long[] offsets = transactionLog.appendAll(rows);
+            for (int i = 0; i < offsets.length; i++) {
+                storeAppended(rows.get(i), offsets[i]);
+            }
+            transactionLog.flush();
+        } finally {
+            historyLock.readLock().unlock();
         }
     }
 
@@ -215,11 +1010,11 @@ public class AccountRepository {
         if (accountId == null) return;
 
         // Remove from in-memory cache
-        Account removed = accountCache.remove(accountId);
+        Account removed = uncacheAccount(accountId);
 
-        // Persist updated accounts.csv
+        // Record the removal in the accounts journal
         if (removed != null) {
-            writeDataToCsv();
+            journalDelete(accountId);
         }
 
         // Remove all transactions where this account is source or target
@@ -241,69 +1036,195 @@ public class AccountRepository {
                 .map(Account::getAccountId)
                 .collect(Collectors.toSet());
 
-        // Remove from in-memory cache
+        // Remove from in-memory cache and record each removal in the journal
         for (String accountId : accountIdsToDelete) {
-            accountCache.remove(accountId);
+            uncacheAccount(accountId);
+            journalDelete(accountId);
         }
 
-        // Persist updated accounts.csv
-        writeDataToCsv();
-
         // Remove all related transactions
         deleteTransactionsForAccountIds(accountIdsToDelete);
     }
 
-    // Helper: remove all transactions involving any of the given account IDs
+    // Helper: remove all transactions involving any of the given account IDs.
+    // The ids are tombstoned so readers skip their rows at once; the history files
+    // are rewritten later by compaction, off the caller's thread.
     private void deleteTransactionsForAccountIds(Set<String> accountIds) {
         if (accountIds == null || accountIds.isEmpty()) return;
 
-        Path path = Paths.get(TRANSACTIONS_FILE_PATH);
-        if (!Files.exists(path)) {
-            // Nothing to clean up
-            return;
+        historyLock.writeLock().lock();
+        try {
+            // Transfers leave a mirrored row with the counterparty; those histories change too
+            Set<String> counterparties = new HashSet<>();
+            for (String accountId : accountIds) {
+                TransactionTimeline timeline = timelineFor(accountId);
+                if (timeline == null) continue;
+                for (Transaction transaction : timeline.toList()) {
+                    String target = transaction.getTargetAccountId();
+                    if (target != null && !accountIds.contains(target)) counterparties.add(target);
+                }
+            }
+
+            tombstones.add(accountIds);
+
+            lazyHistory.forget(accountIds, counterparties);
+        } finally {
+            historyLock.writeLock().unlock();
         }
+        scheduleCompaction();
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            String header = reader.readLine(); // read header
-            if (header == null) {
-                header = "transactionType,amount,sourceAccountId,targetAccountId";
-            }
+    private void scheduleCompaction() {
+        checkpoints.request(transactionsCompaction, COMPACTION_DELAY_MILLIS);
+    }
 
-            List<String> keptLines = new ArrayList<>();
-            keptLines.add(header);
+    // Runs on the checkpoint thread. Returns false if the segment couldn't be folded or the
+    // deleted rows couldn't be dropped.
+    private boolean compactTransactions() {
+        // A segment left by a failed checkpoint must not bring deleted rows back later
+        boolean folded = foldTransactionSegment();
+        Set<String> deleted = tombstones.snapshot();
+        if (deleted.isEmpty()) return folded;
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isBlank()) continue;
+        if (rewriteTransactionsWithout(deleted)) {
+            // A crash before this point only means the next compaction repeats the rewrite
+            tombstones.retire(deleted);
+            return folded;
+        }
+        // Readers keep skipping the rows meanwhile
+        checkpoints.request(transactionsCompaction, CHECKPOINT_PERIOD_MILLIS);
+        return false;
+    }
 
-                String[] parts = line.split(",", -1);
-                if (parts.length < 4) continue;
+    // Builds both filtered files while appends carry on; the history write lock is only held
+    // to note where transactions.csv ends, and then to filter the rows appended since and
+    // swap the files in. Returns false if either file couldn't be rewritten.
+    private boolean rewriteTransactionsWithout(Set<String> accountIds) {
+        // The segment's rows aren't filtered here; compaction waits until it is folded
+        if (Files.exists(Paths.get(TRANSACTIONS_SEGMENT_PATH))) return false;
 
-                String sourceId = parts[2].trim();
-                String targetRaw = parts[3].trim();
-                String targetId = targetRaw.isEmpty() ? null : targetRaw;
+        Path path = Paths.get(TRANSACTIONS_FILE_PATH);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long end;
+        historyLock.writeLock().lock();
+        try {
+            // Buffered rows have to reach the file before it is filtered
+            if (!transactionLog.flush()) return false;
+            end = Files.size(path);
+        } catch (IOException e) {
+            System.err.println("Error reading " + TRANSACTIONS_FILE_PATH + ": " + e.getMessage());
+            return false;
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+
+        TransactionArchive.Prepared rewritten = null;
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp)) {
+                out.write(TRANSACTIONS_HEADER + "\n");
+                LazyTransactionHistory.forEachRow(path, (line, length, offset) -> {
+                    if (offset < end) copyRowWithout(line, length, accountIds, out);
+                });
+            }
+            rewritten = archive.prepareWithout(accountIds);
+        } catch (IOException e) {
+            System.err.println("Error rewriting transaction history: " + e.getMessage());
+            discardQuietly(tmp);
+            archive.discard(rewritten);
+            return false;
+        }
 
-                // Skip any transaction where source or target is in the delete set
-                if (accountIds.contains(sourceId) ||
-                        (targetId != null && accountIds.contains(targetId))) {
-                    continue;
+        boolean swapped = false;
+        historyLock.writeLock().lock();
+        try {
+            if (!transactionLog.flush()) {
+                discardQuietly(tmp);
+                archive.discard(rewritten);
+                return false;
+            }
+            // Rows appended while the copy was made
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+                 Writer out = Files.newBufferedWriter(tmp, StandardOpenOption.APPEND)) {
+                ByteBuffer tail = ByteBuffer.allocate((int) (in.size() - end));
+                while (tail.hasRemaining() && in.read(tail, end + tail.position()) > 0) {
+                    // keep reading
                 }
+                byte[] bytes = tail.array();
+                int start = 0;
+                for (int i = 0; i < tail.position(); i++) {
+                    if (bytes[i] != '\n') continue;
+                    copyRowWithout(Arrays.copyOfRange(bytes, start, i), i - start, accountIds, out);
+                    start = i + 1;
+                }
+            }
 
-                keptLines.add(line);
+            // Both files replace the old ones by rename, so open cursors keep reading the
+            // versions they started on
+            swapped = true;
+            if (rewritten != null) archive.install(rewritten);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error swapping in rewritten transaction history: " + e.getMessage());
+            discardQuietly(tmp);
+            archive.discard(rewritten);
+            return false;
+        } finally {
+            if (swapped) {
+                // Offsets moved; the history already excludes the rows
+                transactionLog.reopen();
+                lazyHistory.rebuild();
             }
+            historyLock.writeLock().unlock();
+        }
+        return true;
+    }
 
-            // Rewrite transactions.csv with remaining transactions
-            Files.write(path, keptLines,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.CREATE);
+    // Copies one row unless its source or target is in the delete set
+    private static void copyRowWithout(byte[] line, int length, Set<String> accountIds, Writer out)
+            throws IOException {
+        String row = new String(line, 0, length, StandardCharsets.UTF_8);
+        if (row.isBlank()) return;
 
-        } catch (IOException e) {
-            System.err.println("Error rewriting transactions.csv: " + e.getMessage());
+        String[] parts = row.split(",", -1);
+        if (parts.length < 4) return;
+
+        String sourceId = parts[2].trim();
+        String targetRaw = parts[3].trim();
+        String targetId = targetRaw.isEmpty() ? null : targetRaw;
+
+        // Skip any transaction where source or target is in the delete set
+        if (accountIds.contains(sourceId) ||
+                (targetId != null && accountIds.contains(targetId))) {
+            return;
         }
+        out.write(row);
+        out.write('\n');
+    }
 
-        // Rebuild in-memory transactionStorage from the cleaned CSV
-        transactionStorage.clear();
-        loadTransactionsFromCsv();
+    private static void discardQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Error removing " + path + ": " + e.getMessage());
+        }
     }
 
+    /**
+     * Writes out buffered transaction rows and closes transactions.csv. Account changes are
+     * already durable in the journal. Stops the checkpoint thread unless it is shared.
+     * Nothing may be saved afterwards.
+     */
+    public void close() {
+        if (ownsCheckpoints) {
+            checkpoints.shutdown();
+        }
+        historyLock.writeLock().lock();
+        try {
+            transactionLog.close();
+            lazyHistory.close();
+            archive.close();
+        } finally {
+            historyLock.writeLock().unlock();
+        }
+    }
 }
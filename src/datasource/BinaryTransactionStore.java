@@ -0,0 +1,570 @@
+package datasource;
+
+import domain.Money;
+import domain.Transaction;
+import domain.TransactionType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only, memory-mapped transaction history made of fixed-width binary records.
+ *
+ * File layout (little endian):
+ *   header  (48 bytes)  magic, version, record count, account count, offsets of the
+ *                       account table and of the names, and the length and CRC-32 of the
+ *                       transactions.csv segment the file was last built from (0 if none)
+ *   records (32 bytes each), grouped by source account in account table order,
+ *           each account's records oldest first
+ *     0  type ordinal (byte), 1-3 unused
+ *     4  source account (int, index into the account table)
+ *     8  target account (int, -1 when there is none)
+ *     12 unused
+ *     16 amount in cents (long)
+ *     24 timestamp in epoch millis (long)
+ *   account table (16 bytes per account), sorted by the UTF-8 bytes of the account id
+ *     0  offset of the id in the names area (int)
+ *     4  length of the id in bytes (int)
+ *     8  first record with this source account (int)
+ *     12 number of records with this source account (int)
+ *   names  the account ids as UTF-8, back to back
+ *
+ * Opening a store only reads the header. An account's records are found with a binary
+ * search of the account table and read in place, so nothing is decoded until a caller
+ * asks for it, however long the history is.
+ *
+ * The mapping is released when the last reference is: the opener holds one, and anyone
+ * else reading the store takes one with {@link #retain()} and gives it back with
+ * {@link #close()}.
+ */
+public class BinaryTransactionStore implements AutoCloseable {
+    public static final String DEFAULT_FILE_PATH = "transactions.bin";
+
+    private static final int MAGIC = 0x54584E42; // "TXNB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 32;
+    private static final int ACCOUNT_ENTRY_SIZE = 16;
+    static final int NO_ACCOUNT = -1;
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int recordCount;
+    private final int accountCount;
+    private final int accountTableOffset;
+    private final int namesOffset;
+    private final long sourceLength;
+    private final int sourceCrc;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private BinaryTransactionStore(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a transaction store.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(path + " has transaction store version " + buffer.getInt(4)
+                    + "; only version " + VERSION + " can be read.");
+        }
+        this.recordCount = buffer.getInt(8);
+        this.accountCount = buffer.getInt(12);
+        this.accountTableOffset = (int) buffer.getLong(16);
+        this.namesOffset = (int) buffer.getLong(24);
+        this.sourceLength = buffer.getLong(32);
+        this.sourceCrc = buffer.getInt(40);
+    }
+
+    /**
+     * Maps an existing store file. The mapping stays valid after the channel is closed,
+     * until the store is closed.
+     *
+     * @throws IOException if the file can't be read or isn't a store of the current version
+     */
+    public static BinaryTransactionStore open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new BinaryTransactionStore(path, mapped);
+            } catch (IOException e) {
+                unmap(mapped);
+                throw e;
+            }
+        }
+    }
+
+    Path path() { return path; }
+
+    /**
+     * Takes another reference to the mapping. Returns false if the store was already released.
+     */
+    boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) return false;
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Gives back one reference; the last one unmaps the file. No accessor may be called
+     * through a reference that has been given back.
+     */
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0) {
+            unmap(buffer);
+        }
+    }
+
+    // --- Zero-copy record accessors ---
+
+    public int size() { return recordCount; }
+
+    public int accountCount() { return accountCount; }
+
+    private int offset(int record) { return HEADER_SIZE + record * RECORD_SIZE; }
+
+    public TransactionType type(int record) { return TYPES[buffer.get(offset(record))]; }
+    public int sourceIndex(int record) { return buffer.getInt(offset(record) + 4); }
+    public int targetIndex(int record) { return buffer.getInt(offset(record) + 8); }
+    public long amountCents(int record) { return buffer.getLong(offset(record) + 16); }
+    public long timestamp(int record) { return buffer.getLong(offset(record) + 24); }
+
+    private int entry(int account) { return accountTableOffset + account * ACCOUNT_ENTRY_SIZE; }
+
+    /**
+     * First record whose source is the account; its records follow it, oldest first.
+     */
+    public int firstRecord(int account) { return buffer.getInt(entry(account) + 8); }
+
+    public int recordCount(int account) { return buffer.getInt(entry(account) + 12); }
+
+    public String accountId(int account) {
+        if (account == NO_ACCOUNT) return null;
+        return new String(nameBytes(account), StandardCharsets.UTF_8);
+    }
+
+    private byte[] nameBytes(int account) {
+        byte[] bytes = new byte[buffer.getInt(entry(account) + 4)];
+        ByteBuffer names = buffer.duplicate();
+        names.position(namesOffset + buffer.getInt(entry(account)));
+        names.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the index of an account id, or {@link #NO_ACCOUNT} if it never appears.
+     */
+    public int indexOf(String accountId) {
+        byte[] key = accountId.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = accountCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareName(mid, key);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return NO_ACCOUNT;
+    }
+
+    // Unsigned byte order, the order the account table is written in
+    private int compareName(int account, byte[] key) {
+        int start = namesOffset + buffer.getInt(entry(account));
+        int length = buffer.getInt(entry(account) + 4);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(start + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compareNames(BinaryTransactionStore a, int accountA, BinaryTransactionStore b, int accountB) {
+        int startA = a.namesOffset + a.buffer.getInt(a.entry(accountA));
+        int lengthA = a.buffer.getInt(a.entry(accountA) + 4);
+        int startB = b.namesOffset + b.buffer.getInt(b.entry(accountB));
+        int lengthB = b.buffer.getInt(b.entry(accountB) + 4);
+        int common = Math.min(lengthA, lengthB);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(a.buffer.get(startA + i) & 0xFF, b.buffer.get(startB + i) & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    /**
+     * Length and CRC-32 of the transactions.csv segment this store was last built from,
+     * so a fold interrupted after the swap is recognized instead of being repeated.
+     */
+    long sourceLength() { return sourceLength; }
+
+    int sourceCrc() { return sourceCrc; }
+
+    /**
+     * Materializes one record as a domain Transaction.
+     */
+    public Transaction toTransaction(int record) {
+        return toTransaction(record, accountId(sourceIndex(record)));
+    }
+
+    /**
+     * Same, for a caller that already knows the record's source account id.
+     */
+    public Transaction toTransaction(int record, String sourceAccountId) {
+        return toTransaction(record, sourceAccountId, "bin-" + record);
+    }
+
+    Transaction toTransaction(int record, String sourceAccountId, String id) {
+        return new Transaction(
+                id,
+                type(record),
+                amountCents(record),
+                new Date(timestamp(record)),
+                sourceAccountId,
+                accountId(targetIndex(record))
+        );
+    }
+
+    // --- Writing ---
+
+    /**
+     * Writes a complete store to {@code path}. The file is built next to the target
+     * and renamed over it, so readers never see a partially written store.
+     */
+    public static void write(Path path, Collection<Transaction> transactions) throws IOException {
+        write(path, transactions, 0, 0);
+    }
+
+    static void write(Path path, Collection<Transaction> transactions, long sourceLength, int sourceCrc)
+            throws IOException {
+        // Account table order: by UTF-8 bytes, so lookups can binary search the mapped names
+        Map<String, byte[]> encoded = new HashMap<>();
+        for (Transaction tx : transactions) {
+            encoded.computeIfAbsent(tx.getSourceAccountId(), id -> id.getBytes(StandardCharsets.UTF_8));
+            if (tx.getTargetAccountId() != null) {
+                encoded.computeIfAbsent(tx.getTargetAccountId(), id -> id.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        List<String> ids = new ArrayList<>(encoded.keySet());
+        ids.sort((a, b) -> Arrays.compareUnsigned(encoded.get(a), encoded.get(b)));
+        Map<String, Integer> index = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            index.put(ids.get(i), i);
+        }
+
+        // Stable, so transactions with the same timestamp keep the order they were given in
+        List<Transaction> sorted = new ArrayList<>(transactions);
+        sorted.sort(Comparator.<Transaction>comparingInt(tx -> index.get(tx.getSourceAccountId()))
+                .thenComparingLong(tx -> tx.getDate().getTime()));
+
+        int[] counts = new int[ids.size()];
+        try (StoreWriter out = new StoreWriter(path)) {
+            for (Transaction tx : sorted) {
+                int source = index.get(tx.getSourceAccountId());
+                String target = tx.getTargetAccountId();
+                out.record(tx.getType().ordinal(), source, target == null ? NO_ACCOUNT : index.get(target),
+                        tx.getAmountCents(), tx.getDate().getTime());
+                counts[source]++;
+            }
+            List<byte[]> names = new ArrayList<>(ids.size());
+            for (String id : ids) {
+                names.add(encoded.get(id));
+            }
+            out.finish(names, counts, sourceLength, sourceCrc);
+        }
+    }
+
+    /**
+     * Writes the records of {@code inputs}, oldest store first, to one new store at
+     * {@code path}, leaving out every record that involves an account in {@code deleted}.
+     * Records are copied as bytes with their account numbers remapped; none of them is
+     * turned into a Transaction, so the heap used doesn't depend on the history's length.
+     */
+    static void merge(Path path, List<BinaryTransactionStore> inputs, Set<String> deleted,
+                      long sourceLength, int sourceCrc) throws IOException {
+        int k = inputs.size();
+
+        // The delete set, as account numbers in each input, resolved once
+        boolean[][] dropped = new boolean[k][];
+        for (int i = 0; i < k; i++) {
+            BinaryTransactionStore in = inputs.get(i);
+            dropped[i] = new boolean[in.accountCount];
+            for (String id : deleted) {
+                int account = in.indexOf(id);
+                if (account != NO_ACCOUNT) dropped[i][account] = true;
+            }
+        }
+
+        // Merge the sorted account tables: remap[i][old] is the account's number in the output,
+        // and members[n * k + i] its number in input i (or NO_ACCOUNT)
+        int[][] remap = new int[k][];
+        for (int i = 0; i < k; i++) {
+            remap[i] = new int[inputs.get(i).accountCount];
+        }
+        int[] members = new int[16 * k];
+        List<int[]> nameSources = new ArrayList<>();
+        int[] next = new int[k];
+        int merged = 0;
+        while (true) {
+            int smallest = -1;
+            for (int i = 0; i < k; i++) {
+                if (next[i] == inputs.get(i).accountCount) continue;
+                if (smallest < 0 || compareNames(inputs.get(i), next[i], inputs.get(smallest), next[smallest]) < 0) {
+                    smallest = i;
+                }
+            }
+            if (smallest < 0) break;
+
+            boolean drop = dropped[smallest][next[smallest]];
+            if (!drop && (merged + 1) * k > members.length) {
+                members = Arrays.copyOf(members, members.length * 2);
+            }
+            int[] source = {smallest, next[smallest]};
+            for (int i = smallest; i < k; i++) {
+                BinaryTransactionStore in = inputs.get(i);
+                if (next[i] == in.accountCount ||
+                        compareNames(in, next[i], inputs.get(smallest), source[1]) != 0) {
+                    if (!drop) members[merged * k + i] = NO_ACCOUNT;
+                    continue;
+                }
+                remap[i][next[i]] = drop ? NO_ACCOUNT : merged;
+                if (!drop) members[merged * k + i] = next[i];
+                next[i]++;
+            }
+            for (int i = 0; i < smallest && !drop; i++) {
+                members[merged * k + i] = NO_ACCOUNT;
+            }
+            if (!drop) {
+                nameSources.add(source);
+                merged++;
+            }
+        }
+
+        int[] counts = new int[merged];
+        int[] position = new int[k];
+        int[] end = new int[k];
+        try (StoreWriter out = new StoreWriter(path)) {
+            for (int account = 0; account < merged; account++) {
+                for (int i = 0; i < k; i++) {
+                    int old = members[account * k + i];
+                    BinaryTransactionStore in = inputs.get(i);
+                    position[i] = old == NO_ACCOUNT ? 0 : in.firstRecord(old);
+                    end[i] = old == NO_ACCOUNT ? 0 : position[i] + in.recordCount(old);
+                }
+                // Each input holds the account's records oldest first; take the oldest head,
+                // the earlier input first on a tie
+                while (true) {
+                    int from = -1;
+                    for (int i = 0; i < k; i++) {
+                        if (position[i] == end[i]) continue;
+                        if (from < 0 || inputs.get(i).timestamp(position[i]) < inputs.get(from).timestamp(position[from])) {
+                            from = i;
+                        }
+                    }
+                    if (from < 0) break;
+
+                    BinaryTransactionStore in = inputs.get(from);
+                    int record = position[from]++;
+                    int target = in.targetIndex(record);
+                    if (target != NO_ACCOUNT && dropped[from][target]) continue;
+                    out.record(in.buffer.get(in.offset(record)), account,
+                            target == NO_ACCOUNT ? NO_ACCOUNT : remap[from][target],
+                            in.amountCents(record), in.timestamp(record));
+                    counts[account]++;
+                }
+            }
+
+            List<byte[]> names = new ArrayList<>(merged);
+            for (int[] source : nameSources) {
+                names.add(inputs.get(source[0]).nameBytes(source[1]));
+            }
+            out.finish(names, counts, sourceLength, sourceCrc);
+        }
+    }
+
+    // Streams a store to a temporary file through one buffer, then renames it into place
+    private static final class StoreWriter implements AutoCloseable {
+        private final Path path;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private int records = 0;
+        private boolean finished = false;
+
+        StoreWriter(Path path) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+        }
+
+        void record(int type, int source, int target, long amountCents, long timestamp) throws IOException {
+            ensure(RECORD_SIZE);
+            buffer.put((byte) type).put((byte) 0).putShort((short) 0)
+                    .putInt(source).putInt(target).putInt(0)
+                    .putLong(amountCents).putLong(timestamp);
+            records++;
+        }
+
+        void finish(List<byte[]> names, int[] counts, long sourceLength, int sourceCrc) throws IOException {
+            long accountTableOffset = HEADER_SIZE + (long) records * RECORD_SIZE;
+            long namesOffset = accountTableOffset + (long) names.size() * ACCOUNT_ENTRY_SIZE;
+            long nameBytes = 0;
+            for (byte[] name : names) {
+                nameBytes += name.length;
+            }
+            if (namesOffset + nameBytes > Integer.MAX_VALUE) {
+                throw new IOException("Transaction history too large for a single store file.");
+            }
+
+            int nameOffset = 0;
+            int first = 0;
+            for (int i = 0; i < names.size(); i++) {
+                ensure(ACCOUNT_ENTRY_SIZE);
+                buffer.putInt(nameOffset).putInt(names.get(i).length).putInt(first).putInt(counts[i]);
+                nameOffset += names.get(i).length;
+                first += counts[i];
+            }
+            for (byte[] name : names) {
+                ensure(name.length);
+                buffer.put(name);
+            }
+            drain();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(records).putInt(names.size())
+                    .putLong(accountTableOffset).putLong(namesOffset)
+                    .putLong(sourceLength).putInt(sourceCrc).putInt(0);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            finished = true;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) drain();
+            if (buffer.remaining() < bytes) throw new IOException("Account id too long for a transaction store.");
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (finished) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    // --- Unmapping ---
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Mappings are then released by the garbage collector
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // Releases the mapping now rather than whenever the buffer is collected, so the disk
+    // space of a replaced store comes back at once
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Could not unmap transaction store: " + e.getMessage());
+        }
+    }
+
+    // --- One-shot conversion from transactions.csv ---
+
+    /**
+     * Converts an existing transactions.csv into a binary store. The CSV is kept as
+     * {@code <csv>.bak} and replaced by an empty one that only receives new rows.
+     */
+    public static int convertFromCsv(Path csv, Path bin) throws IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        String header;
+        long convertedAt = System.currentTimeMillis();
+
+        try (BufferedReader reader = Files.newBufferedReader(csv)) {
+            header = reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+
+                String[] parts = line.split(",", -1);
+                if (parts.length < 4) continue;
+
+                String target = parts[3].trim();
+                String timestamp = parts.length > 4 ? parts[4].trim() : "";
+                transactions.add(new Transaction(
+                        "csv-" + transactions.size(),
+                        TransactionType.valueOf(parts[0].trim()),
+                        Money.parse(parts[1]),
+                        // Rows from before timestamps were stored are stamped with the conversion time
+                        new Date(timestamp.isEmpty() ? convertedAt : Long.parseLong(timestamp)),
+                        parts[2].trim(),
+                        target.isEmpty() ? null : target
+                ));
+            }
+        }
+
+        write(bin, transactions);
+
+        Files.move(csv, csv.resolveSibling(csv.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        Files.writeString(csv, header + "\n", StandardOpenOption.CREATE_NEW);
+        return transactions.size();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path csv = Paths.get(args.length > 0 ? args[0] : "transactions.csv");
+        Path bin = Paths.get(args.length > 1 ? args[1] : DEFAULT_FILE_PATH);
+
+        long start = System.nanoTime();
+        int rows = convertFromCsv(csv, bin);
+        System.out.printf("Converted %d transactions from %s to %s in %d ms.%n",
+                rows, csv, bin, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,282 @@
+package datasource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Append-only write-ahead journal for a CSV snapshot file (accounts.csv, users.csv).
+ * Every save appends one short record instead of rewriting the whole file.
+ * Appenders that arrive while an fsync is running share the next one (group commit),
+ * and a checkpoint later folds the journal back into the snapshot.
+ *
+ * Records are {@code U,<snapshot row>} for an insert or update, {@code D,<id>} for a delete
+ * and {@code M,<run>,<mark>} for a maintenance run's progress.
+ * Records that must land together are preceded by {@code G,<count>}; replay skips a group
+ * that a crash cut short, so it is applied entirely or not at all.
+ */
+class ChangeJournal {
+    static final String UPSERT = "U";
+    static final String DELETE = "D";
+    static final String GROUP = "G";
+    static final String MARKER = "M";
+
+    private final Path path;
+    private final Path retiredPath;
+    // Columns in a snapshot row; the last one may itself contain commas
+    private final int rowFields;
+
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+    private volatile long writtenSeq = 0;
+    private long syncedSeq = 0;
+    private int recordsSinceCheckpoint = 0;
+
+    ChangeJournal(String fileName, int rowFields) {
+        this.path = Paths.get(fileName);
+        this.retiredPath = Paths.get(fileName + ".old");
+        this.rowFields = rowFields;
+    }
+
+    /**
+     * Replays the records of an interrupted checkpoint first and then the live journal.
+     * Each record is handed over already split on commas.
+     */
+    int replay(Consumer<String[]> handler) {
+        int replayed = replayFile(retiredPath, handler) + replayFile(path, handler);
+        // Replayed records still have to be folded into the snapshot by the next checkpoint
+        synchronized (writeLock) {
+            recordsSinceCheckpoint += replayed;
+        }
+        return replayed;
+    }
+
+    private int replayFile(Path file, Consumer<String[]> handler) {
+        if (!Files.exists(file)) return 0;
+
+        int count = 0;
+        // Records of the group being read, and how many it still needs
+        List<String[]> group = new ArrayList<>();
+        int missing = 0;
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            // End of the last record, or group, that replay applied
+            int applied = 0;
+            int lineStart = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != '\n') continue;
+                String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                lineStart = i + 1;
+                if (line.isBlank()) continue;
+
+                String[] parts = line.split(",", rowFields + 1);
+                if (GROUP.equals(parts[0]) && parts.length == 2) {
+                    group.clear();
+                    missing = parseCount(parts[1]);
+                } else if (UPSERT.equals(parts[0]) && parts.length == rowFields + 1 ||
+                        DELETE.equals(parts[0]) && parts.length == 2 ||
+                        MARKER.equals(parts[0]) && parts.length == 3) {
+                    if (missing == 0) {
+                        handler.accept(parts);
+                        count++;
+                        applied = lineStart;
+                    } else {
+                        group.add(parts);
+                        if (--missing == 0) {
+                            group.forEach(handler);
+                            count += group.size();
+                            group.clear();
+                            applied = lineStart;
+                        }
+                    }
+                }
+            }
+
+            // A crash can leave a torn last record, or a group cut short. Cut them off, so
+            // records appended from now on aren't read as their remainder.
+            if (applied < bytes.length) {
+                try (FileChannel torn = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    torn.truncate(applied);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying " + file + ": " + e.getMessage());
+        }
+        return count;
+    }
+
+    private static int parseCount(String field) {
+        try {
+            return Math.max(0, Integer.parseInt(field.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    void open() {
+        synchronized (writeLock) {
+            try {
+                channel = FileChannel.open(path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Error opening " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    void append(String record) {
+        append(() -> record);
+    }
+
+    /**
+     * Builds the record while holding the write lock, so records about the same
+     * account land in the journal in the order their values were read.
+     *
+     * @throws UncheckedIOException if the record could not be written and synced
+     */
+    void append(Supplier<String> record) {
+        long seq;
+        synchronized (writeLock) {
+            ByteBuffer buffer = ByteBuffer.wrap((record.get() + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                System.err.println("Error appending to " + path + ": " + e.getMessage());
+                throw new UncheckedIOException("Error appending to " + path, e);
+            }
+            seq = ++writtenSeq;
+            recordsSinceCheckpoint++;
+        }
+        sync(seq);
+    }
+
+    /**
+     * Appends several records as one group, with one write and one fsync.
+     *
+     * @throws UncheckedIOException if the group could not be written and synced
+     */
+    void appendAll(List<Supplier<String>> records) {
+        long seq;
+        synchronized (writeLock) {
+            StringBuilder sb = new StringBuilder(records.size() * 96 + 16);
+            if (records.size() > 1) {
+                sb.append(GROUP).append(',').append(records.size()).append('\n');
+            }
+            for (Supplier<String> record : records) {
+                sb.append(record.get()).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                System.err.println("Error appending to " + path + ": " + e.getMessage());
+                throw new UncheckedIOException("Error appending to " + path, e);
+            }
+            seq = ++writtenSeq;
+            recordsSinceCheckpoint += records.size();
+        }
+        sync(seq);
+    }
+
+    // Group commit: whoever holds syncLock forces every record written so far,
+    // so threads queued behind it usually find their record already durable.
+    private void sync(long seq) {
+        synchronized (syncLock) {
+            if (syncedSeq >= seq) return;
+
+            long target = writtenSeq;
+            try {
+                channel.force(false);
+                syncedSeq = target;
+            } catch (IOException e) {
+                System.err.println("Error syncing " + path + ": " + e.getMessage());
+                throw new UncheckedIOException("Error syncing " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code action} holding the write lock, so nothing else is appended, and no
+     * checkpoint rotates the journal, until it returns. It may append records itself.
+     */
+    <T> T whileLocked(Supplier<T> action) {
+        synchronized (writeLock) {
+            return action.get();
+        }
+    }
+
+    int recordsSinceCheckpoint() {
+        synchronized (writeLock) {
+            return recordsSinceCheckpoint;
+        }
+    }
+
+    /**
+     * Starts a checkpoint: the live journal is set aside and a fresh one is opened.
+     * Returns false when there is nothing to fold into the snapshot.
+     */
+    boolean rotate() {
+        synchronized (writeLock) {
+            if (recordsSinceCheckpoint == 0 && !Files.exists(retiredPath)) return false;
+
+            synchronized (syncLock) {
+                try {
+                    channel.force(false);
+                    channel.close();
+                    syncedSeq = writtenSeq;
+
+                    if (Files.exists(retiredPath)) {
+                        // A previous checkpoint never finished; keep both until the snapshot lands
+                        appendFile(path, retiredPath);
+                        Files.delete(path);
+                    } else {
+                        Files.move(path, retiredPath, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error rotating " + path + ": " + e.getMessage());
+                }
+                recordsSinceCheckpoint = 0;
+            }
+            open();
+        }
+        return true;
+    }
+
+    /**
+     * True while a set-aside journal is waiting for a checkpoint to succeed.
+     */
+    boolean hasRetired() {
+        return Files.exists(retiredPath);
+    }
+
+    /**
+     * Finishes a checkpoint once the snapshot has been written.
+     */
+    void retire() {
+        try {
+            Files.deleteIfExists(retiredPath);
+        } catch (IOException e) {
+            System.err.println("Error retiring " + retiredPath + ": " + e.getMessage());
+        }
+    }
+
+    private static void appendFile(Path from, Path to) throws IOException {
+        if (!Files.exists(from)) return;
+        Files.write(to, Files.readAllBytes(from), StandardOpenOption.APPEND);
+    }
+}
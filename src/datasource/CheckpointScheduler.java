@@ -0,0 +1,92 @@
+package datasource;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Runs checkpoint and compaction work for the data files on a single background thread.
+ *
+ * Registered tasks are checked on a fixed period and run when they report they are due;
+ * any task can also be requested directly, e.g. when a journal passes its size threshold.
+ * Because everything runs on the one thread, two tasks never rewrite files at the same time,
+ * and foreground saves only ever pay for a flag check.
+ */
+class CheckpointScheduler {
+    interface Task {
+        /**
+         * True when enough has changed since the last run to make a checkpoint worthwhile.
+         */
+        boolean isDue();
+
+        void run();
+    }
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+    // Tasks with a run already queued, so repeated requests collapse into one
+    private final Set<Task> pending = ConcurrentHashMap.newKeySet();
+
+    CheckpointScheduler(String name, long periodMillis) {
+        this.name = name;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        // Requested runs still waiting at shutdown are dropped; their work is redone on the next start
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = executor;
+        executor.scheduleWithFixedDelay(this::runDue, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void register(Task task) {
+        tasks.add(task);
+    }
+
+    void request(Task task) {
+        request(task, 0);
+    }
+
+    /**
+     * Runs the task once after {@code delayMillis}, unless a run is already queued.
+     */
+    void request(Task task, long delayMillis) {
+        if (pending.add(task)) {
+            executor.schedule(() -> runTask(task), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runDue() {
+        for (Task task : tasks) {
+            if (task.isDue()) {
+                runTask(task);
+            }
+        }
+    }
+
+    private void runTask(Task task) {
+        pending.remove(task);
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // Keep the thread alive; the task is retried on a later period
+            System.err.println("Checkpoint task failed on " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the thread, letting a task that is already running finish first.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Checkpoint task still running on " + name + " at shutdown.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package datasource;
+
+/**
+ * The repositories shared by every screen in the process.
+ *
+ * Each store is loaded from disk the first time it is asked for and the same instance is
+ * handed out from then on, so opening a second dashboard doesn't re-read the data files and
+ * there is never more than one live copy of them. Both repositories share one checkpoint
+ * thread. A shutdown hook flushes buffered rows when the process exits.
+ */
+public final class DataContext {
+    private static final long CHECKPOINT_PERIOD_MILLIS = 30_000;
+    // Accounts whose transaction history is kept in memory; the others are read from disk
+    // when a screen asks for them, so the heap doesn't grow with the history
+    private static final int HISTORY_CACHE_SIZE = 10_000;
+
+    private static DataContext shared;
+
+    private final CheckpointScheduler checkpoints =
+            new CheckpointScheduler("datasource-checkpoint", CHECKPOINT_PERIOD_MILLIS);
+    private volatile AccountRepository accountRepository;
+    private volatile UserRepository userRepository;
+    private boolean closed = false;
+
+    private DataContext() {
+    }
+
+    public static synchronized DataContext get() {
+        if (shared == null) {
+            shared = new DataContext();
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::close, "datasource-shutdown"));
+        }
+        return shared;
+    }
+
+    public AccountRepository getAccountRepository() {
+        AccountRepository repo = accountRepository;
+        if (repo != null) return repo;
+
+        synchronized (this) {
+            checkOpen();
+            if (accountRepository == null) {
+                accountRepository = new AccountRepository(DurabilityPolicy.everyMillis(50), HISTORY_CACHE_SIZE,
+                        checkpoints);
+            }
+            return accountRepository;
+        }
+    }
+
+    public UserRepository getUserRepository() {
+        UserRepository repo = userRepository;
+        if (repo != null) return repo;
+
+        synchronized (this) {
+            checkOpen();
+            if (userRepository == null) {
+                userRepository = new UserRepository(checkpoints);
+            }
+            return userRepository;
+        }
+    }
+
+    /**
+     * Starts loading the account data in the background, e.g. while the login screen is up,
+     * so the first dashboard opens without waiting for it.
+     */
+    public void warmUp() {
+        Thread t = new Thread(this::getAccountRepository, "datasource-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        checkpoints.shutdown();
+        if (accountRepository != null) {
+            accountRepository.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Data context is closed.");
+        }
+    }
+}
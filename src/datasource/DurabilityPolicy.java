@@ -0,0 +1,70 @@
+package datasource;
+
+/**
+ * Decides when buffered transaction rows are written out and forced to disk.
+ */
+public final class DurabilityPolicy {
+    enum Mode { EVERY_WRITE, INTERVAL, RECORD_COUNT }
+
+    // Rows buffered under RECORD_COUNT are still flushed at least this often
+    static final long RECORD_COUNT_BACKSTOP_MS = 1000;
+
+    private final Mode mode;
+    private final long value;
+
+    private DurabilityPolicy(Mode mode, long value) {
+        this.mode = mode;
+        this.value = value;
+    }
+
+    /**
+     * Every row is forced before append returns. Slowest, loses nothing.
+     */
+    public static DurabilityPolicy everyWrite() {
+        return new DurabilityPolicy(Mode.EVERY_WRITE, 0);
+    }
+
+    /**
+     * Rows are flushed in one batch every {@code millis} milliseconds.
+     */
+    public static DurabilityPolicy everyMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("Flush interval must be positive.");
+        return new DurabilityPolicy(Mode.INTERVAL, millis);
+    }
+
+    /**
+     * Rows are flushed once {@code records} of them are buffered.
+     */
+    public static DurabilityPolicy everyRecords(int records) {
+        if (records <= 0) throw new IllegalArgumentException("Record count must be positive.");
+        return new DurabilityPolicy(Mode.RECORD_COUNT, records);
+    }
+
+    boolean shouldFlush(int pendingRecords) {
+        switch (mode) {
+            case EVERY_WRITE:
+                return true;
+            case RECORD_COUNT:
+                return pendingRecords >= value;
+            default:
+                return false;
+        }
+    }
+
+    // Period of the background flush, or 0 when only appends trigger flushes
+    long flushIntervalMillis() {
+        switch (mode) {
+            case INTERVAL:
+                return value;
+            case RECORD_COUNT:
+                return RECORD_COUNT_BACKSTOP_MS;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode + (mode == Mode.EVERY_WRITE ? "" : "(" + value + ")");
+    }
+}
@@ -0,0 +1,448 @@
+package datasource;
+
+import domain.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Transaction history that is read from disk one account at a time.
+ *
+ * At startup only a small index is built: the byte offsets of every account's rows in
+ * transactions.csv. The binary stores need none, since each keeps an account's records
+ * together and finds them itself. An account's TransactionTimeline is built from both the
+ * first time it is asked for and kept in an LRU cache, so with a bounded capacity heap use
+ * no longer grows with the history.
+ *
+ * While a checkpoint folds transactions.csv into the binary store, the rows indexed so far
+ * live in the set-aside segment file; each entry remembers how many of its offsets point there.
+ */
+class LazyTransactionHistory {
+    private final Path csvPath;
+    private final Path segmentPath;
+    private final TransactionArchive archive;
+    // 0 keeps every timeline once it has been read
+    private final int capacity;
+    // Called before reading rows from transactions.csv, so buffered rows are on disk
+    private final BooleanSupplier beforeRead;
+    private final TransactionTombstones tombstones;
+
+    private final Map<String, IndexEntry> index = new HashMap<>();
+    private final Map<String, TransactionTimeline> cache;
+    // Rows written before timestamps were stored, keyed by offset
+    private final Map<Long, Long> legacyTimestamps = new HashMap<>();
+    // The archive's files as of the last (re)index, held until they are replaced
+    private TransactionArchive.Snapshot archived;
+    // Bumped whenever the files behind the offsets change, so in-flight loads start over
+    private long generation = 0;
+
+    private static final class IndexEntry {
+        long[] csvOffsets = new long[4];
+        int csvCount = 0;
+        // The first segmentCount offsets are in the set-aside segment, the rest in transactions.csv
+        int segmentCount = 0;
+
+        void addOffset(long offset) {
+            if (csvCount == csvOffsets.length) {
+                csvOffsets = Arrays.copyOf(csvOffsets, csvCount * 2);
+            }
+            csvOffsets[csvCount++] = offset;
+        }
+    }
+
+    LazyTransactionHistory(Path csvPath, Path segmentPath, TransactionArchive archive, int capacity,
+                           BooleanSupplier beforeRead, TransactionTombstones tombstones) {
+        this.csvPath = csvPath;
+        this.segmentPath = segmentPath;
+        this.archive = archive;
+        this.capacity = capacity;
+        this.beforeRead = beforeRead;
+        this.tombstones = tombstones;
+        this.cache = new LinkedHashMap<String, TransactionTimeline>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TransactionTimeline> eldest) {
+                return capacity > 0 && size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Drops every cached timeline and indexes the history files again.
+     */
+    synchronized void rebuild() {
+        generation++;
+        index.clear();
+        cache.clear();
+        legacyTimestamps.clear();
+        takeArchive();
+
+        try {
+            indexCsv();
+        } catch (IOException e) {
+            System.err.println("Error indexing transaction history: " + e.getMessage());
+        }
+    }
+
+    private void takeArchive() {
+        if (archived != null) archived.close();
+        archived = archive.acquire();
+    }
+
+    /**
+     * Gives back the archive's files; nothing may be read afterwards.
+     */
+    synchronized void close() {
+        if (archived != null) archived.close();
+        archived = null;
+        cache.clear();
+    }
+
+    private void indexCsv() throws IOException {
+        if (!Files.exists(csvPath)) return;
+
+        long scannedAt = System.currentTimeMillis();
+        List<Long> undated = new ArrayList<>();
+        forEachRow(csvPath, (line, length, offset) -> indexCsvRow(line, length, offset, undated));
+
+        // Same rule as the segment reader: undated rows take the time of the next dated row
+        for (Long legacy : undated) {
+            legacyTimestamps.put(legacy, scannedAt);
+        }
+    }
+
+    interface RowVisitor {
+        void visit(byte[] line, int length, long offset) throws IOException;
+    }
+
+    /**
+     * Hands every row after the header to {@code visitor} with its starting byte offset.
+     * Reads the file as bytes so the offsets are exact.
+     */
+    static void forEachRow(Path path, RowVisitor visitor) throws IOException {
+        byte[] line = new byte[256];
+        long offset = 0;
+        boolean header = true;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            while (true) {
+                long lineStart = offset;
+                int length = 0;
+                int b;
+                while ((b = in.read()) != -1 && b != '\n') {
+                    if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                    line[length++] = (byte) b;
+                }
+                if (b == -1 && length == 0) break;
+                offset += length + (b == -1 ? 0 : 1);
+
+                if (header) {
+                    header = false;
+                } else {
+                    visitor.visit(line, length, lineStart);
+                }
+                if (b == -1) break;
+            }
+        }
+    }
+
+    /**
+     * Id of a row that isn't in the binary store yet: the file it is in and its byte offset
+     * there. Used by every reader, so the same row gets the same id wherever it is read.
+     */
+    static String rowId(boolean inSegment, long offset) {
+        return (inSegment ? "seg-" : "csv-") + offset;
+    }
+
+    private void indexCsvRow(byte[] line, int length, long offset, List<Long> undated) {
+        int[] commas = new int[4];
+        int found = 0;
+        for (int i = 0; i < length && found < 4; i++) {
+            if (line[i] == ',') commas[found++] = i;
+        }
+        if (found < 3) return;
+
+        String sourceId = new String(line, commas[1] + 1, commas[2] - commas[1] - 1, StandardCharsets.UTF_8).trim();
+        String timestamp = found < 4 ? ""
+                : new String(line, commas[3] + 1, length - commas[3] - 1, StandardCharsets.UTF_8).trim();
+
+        if (timestamp.isEmpty()) {
+            undated.add(offset);
+        } else {
+            long dated;
+            try {
+                dated = Long.parseLong(timestamp);
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping malformed transaction row at " + csvPath + ":" + offset);
+                return;
+            }
+            for (Long legacy : undated) {
+                legacyTimestamps.put(legacy, dated);
+            }
+            undated.clear();
+        }
+        entryFor(sourceId).addOffset(offset);
+    }
+
+    private IndexEntry entryFor(String accountId) {
+        return index.computeIfAbsent(accountId, k -> new IndexEntry());
+    }
+
+    int count(String accountId) {
+        // The index still holds rows of deleted accounts until compaction; only a load filters them
+        if (!tombstones.isEmpty()) {
+            TransactionTimeline timeline = timeline(accountId);
+            return timeline == null ? 0 : timeline.size();
+        }
+        synchronized (this) {
+            IndexEntry entry = index.get(accountId);
+            return (entry == null ? 0 : entry.csvCount) + archived.count(accountId);
+        }
+    }
+
+    /**
+     * Drops deleted accounts from the index, and the cached histories of their counterparties
+     * so those are read again, without the deleted rows. Other accounts are left alone.
+     */
+    synchronized void forget(Set<String> accountIds, Set<String> counterparties) {
+        for (String accountId : accountIds) {
+            index.remove(accountId);
+            cache.remove(accountId);
+        }
+        for (String counterparty : counterparties) {
+            cache.remove(counterparty);
+        }
+    }
+
+    /**
+     * transactions.csv was just moved to the segment path and a fresh file started.
+     */
+    synchronized void segmentRotated() {
+        generation++;
+        for (IndexEntry entry : index.values()) {
+            entry.segmentCount = entry.csvCount;
+        }
+    }
+
+    /**
+     * The segment's rows are now in the binary store: switch to the new store and forget
+     * the segment offsets. Cached timelines hold the same transactions and are kept.
+     */
+    synchronized void segmentFolded() {
+        generation++;
+        for (IndexEntry entry : index.values()) {
+            entry.csvOffsets = Arrays.copyOfRange(entry.csvOffsets, entry.segmentCount,
+                    Math.max(entry.csvCount, entry.segmentCount + 4));
+            entry.csvCount -= entry.segmentCount;
+            entry.segmentCount = 0;
+        }
+        legacyTimestamps.clear();
+        takeArchive();
+    }
+
+    /**
+     * The archive merged some of its files. They hold the same records, so only the
+     * snapshot is replaced; cached timelines are kept.
+     */
+    synchronized void archiveMerged() {
+        generation++;
+        takeArchive();
+    }
+
+    /**
+     * Records a row that was just appended to transactions.csv at {@code offset}.
+     * A cached timeline for the account is updated in place.
+     */
+    synchronized void appended(Transaction transaction, long offset) {
+        entryFor(transaction.getSourceAccountId()).addOffset(offset);
+        TransactionTimeline cached = cache.get(transaction.getSourceAccountId());
+        if (cached != null) {
+            cached.add(transaction);
+        }
+    }
+
+    /**
+     * Where one account's rows in the set-aside segment and transactions.csv are, as of
+     * {@link #rows(String)}.
+     */
+    static final class Rows {
+        final long[] offsets;
+        // The first segmentCount offsets are in the set-aside segment, the rest in transactions.csv
+        final int segmentCount;
+        // Dates of this account's rows from before timestamps were stored, by offset
+        private final Map<Long, Long> legacyTimestamps;
+
+        private Rows(long[] offsets, int segmentCount, Map<Long, Long> legacyTimestamps) {
+            this.offsets = offsets;
+            this.segmentCount = segmentCount;
+            this.legacyTimestamps = legacyTimestamps;
+        }
+
+        long legacyTimestamp(long offset) {
+            return legacyTimestamps.getOrDefault(offset, 0L);
+        }
+    }
+
+    /**
+     * The account's rows that aren't in the binary store yet, for a reader that goes through
+     * them itself. The offsets stay valid for the files that are in place now.
+     */
+    synchronized Rows rows(String accountId) {
+        IndexEntry entry = index.get(accountId);
+        if (entry == null) return new Rows(new long[0], 0, Collections.emptyMap());
+
+        long[] offsets = Arrays.copyOf(entry.csvOffsets, entry.csvCount);
+        Map<Long, Long> legacy = new HashMap<>();
+        if (!legacyTimestamps.isEmpty()) {
+            for (long offset : offsets) {
+                Long dated = legacyTimestamps.get(offset);
+                if (dated != null) legacy.put(offset, dated);
+            }
+        }
+        return new Rows(offsets, entry.segmentCount, legacy);
+    }
+
+    /**
+     * The account's timeline, read from disk on a cache miss. Returns null when the
+     * account has no transactions.
+     */
+    TransactionTimeline timeline(String accountId) {
+        while (true) {
+            TransactionArchive.Snapshot files;
+            long[] offsets;
+            int segmentCount;
+            long loadedGeneration;
+            synchronized (this) {
+                TransactionTimeline cached = cache.get(accountId);
+                if (cached != null) return cached;
+
+                IndexEntry entry = index.get(accountId);
+                if (entry == null && archived.count(accountId) == 0) return null;
+                // Our own references, so a swap while loading doesn't unmap the files
+                files = archived.retain();
+                offsets = entry == null ? new long[0] : Arrays.copyOf(entry.csvOffsets, entry.csvCount);
+                segmentCount = entry == null ? 0 : entry.segmentCount;
+                loadedGeneration = generation;
+            }
+
+            // Read outside the lock so a slow load doesn't hold up other accounts
+            TransactionTimeline loaded = null;
+            IOException failure = null;
+            try {
+                loaded = load(accountId, files, offsets, segmentCount);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                files.close();
+            }
+
+            synchronized (this) {
+                TransactionTimeline cached = cache.get(accountId);
+                if (cached != null) return cached;
+
+                IndexEntry entry = index.get(accountId);
+                int csvCount = entry == null ? 0 : entry.csvCount;
+                // Rows appended, or files swapped, while loading; read again
+                if (generation == loadedGeneration && csvCount == offsets.length) {
+                    // A timeline missing the rows that couldn't be read is never cached
+                    if (failure != null) {
+                        throw new IllegalStateException("Could not read transaction history: " + failure.getMessage(), failure);
+                    }
+                    cache.put(accountId, loaded);
+                    return loaded;
+                }
+            }
+        }
+    }
+
+    private TransactionTimeline load(String accountId, TransactionArchive.Snapshot files, long[] offsets,
+                                     int segmentCount) throws IOException {
+        TransactionTimeline timeline = new TransactionTimeline();
+        for (Iterator<Transaction> records = files.transactions(accountId); records.hasNext(); ) {
+            Transaction transaction = records.next();
+            if (!tombstones.covers(transaction)) timeline.add(transaction);
+        }
+        if (offsets.length == 0) return timeline;
+
+        if (!beforeRead.getAsBoolean()) {
+            throw new IllegalStateException("Could not read transaction history: buffered rows are not written yet.");
+        }
+        loadRows(timeline, segmentPath, offsets, 0, segmentCount, segmentCount);
+        loadRows(timeline, csvPath, offsets, segmentCount, offsets.length, segmentCount);
+        return timeline;
+    }
+
+    // A read error is passed on: usually a checkpoint swapped the files mid-read, and
+    // timeline() notices and retries
+    private void loadRows(TransactionTimeline timeline, Path file, long[] offsets, int from, int to,
+                          int segmentCount) throws IOException {
+        if (from >= to) return;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(512);
+            for (int i = from; i < to; i++) {
+                Transaction transaction = readRow(channel, i < segmentCount, offsets[i], buffer,
+                        this::legacyTimestamp);
+                if (transaction != null && !tombstones.covers(transaction)) timeline.add(transaction);
+            }
+        }
+    }
+
+    private synchronized long legacyTimestamp(long offset) {
+        return legacyTimestamps.getOrDefault(offset, 0L);
+    }
+
+    /**
+     * Reads and parses the row starting at {@code offset}, or returns null if it is malformed.
+     * Rows from before timestamps were stored are dated with {@code legacyTimestamp}.
+     */
+    static Transaction readRow(FileChannel channel, boolean inSegment, long offset, ByteBuffer buffer,
+                               LongUnaryOperator legacyTimestamp) throws IOException {
+        String[] parts = readLine(channel, offset, buffer).split(",", -1);
+        if (parts.length < 4) return null;
+
+        String timestamp = parts.length > 4 ? parts[4].trim() : "";
+        try {
+            long dated = timestamp.isEmpty() ? legacyTimestamp.applyAsLong(offset) : Long.parseLong(timestamp);
+            return AccountRepository.parseTransactionRow(parts, rowId(inSegment, offset), dated);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipping malformed transaction row at offset " + offset + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String readLine(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        byte[] line = new byte[0];
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+
+            int newline = -1;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            int take = newline < 0 ? read : newline;
+            int start = line.length;
+            line = Arrays.copyOf(line, start + take);
+            buffer.position(0);
+            buffer.get(line, start, take);
+            if (newline >= 0) break;
+            position += read;
+        }
+        return new String(line, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,56 @@
+package datasource;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checklist for long maintenance runs (month-end interest, quarterly fees), kept by
+ * {@link AccountRepository#progressLog(String)}.
+ *
+ * Accounts are checked off by {@link AccountRepository#saveAll(Collection, java.util.List,
+ * RunProgressLog, boolean)} in the same journal group as their new balances, so a crash
+ * either persists a chunk and its check marks or neither, and an interrupted run can be
+ * started again and skip exactly what was already done.
+ */
+public class RunProgressLog {
+    static final String COMPLETE_MARKER = "#COMPLETE";
+
+    private final String runName;
+    private final Set<String> done = ConcurrentHashMap.newKeySet();
+    private volatile boolean complete = false;
+
+    RunProgressLog(String runName) {
+        this.runName = runName;
+    }
+
+    public String getRunName() {
+        return runName;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public boolean isDone(String accountId) {
+        return complete || done.contains(accountId);
+    }
+
+    public int doneCount() {
+        return done.size();
+    }
+
+    void markDone(Collection<String> accountIds) {
+        if (!complete) done.addAll(accountIds);
+    }
+
+    // A finished run only needs to remember that it finished
+    void markComplete() {
+        complete = true;
+        done.clear();
+    }
+
+    Set<String> done() {
+        return done;
+    }
+}
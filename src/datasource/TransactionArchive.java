@@ -0,0 +1,337 @@
+package datasource;
+
+import domain.Transaction;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The binary part of the transaction history: a list of store files, oldest first.
+ *
+ * Each fold of transactions.csv writes its rows as a new, small file instead of rewriting
+ * everything folded before, so the cost of a checkpoint depends on the segment, not on the
+ * history. To keep reads from having to visit many files, the two newest are merged
+ * whenever the newer has grown to at least half the size of the older, which keeps the
+ * files in roughly doubling sizes: any record is rewritten O(log n) times in total.
+ *
+ * Files are named {@code transactions.<first>-<last>.bin}, after the range of folds they
+ * hold; a store from before there were several is read as fold 0. A merged file's range
+ * covers its inputs', so if the process stops before the inputs are deleted, the next start
+ * finds them inside the merged range and deletes them then.
+ *
+ * Readers take the current files with {@link #acquire()} and close the snapshot when done;
+ * a replaced file is unmapped as soon as the last reader is finished with it. New files are
+ * built with the {@code prepare} methods, which can run without the caller's locks, and
+ * swapped in with {@link #install}.
+ */
+class TransactionArchive implements AutoCloseable {
+    private final Path directory;
+    private final Path legacyPath;
+    private final Pattern partName;
+    private final String stem;
+    // Oldest first; each holds a reference to its store
+    private final List<Part> parts = new ArrayList<>();
+
+    private static final class Part {
+        final long first;
+        final long last;
+        final Path path;
+        final BinaryTransactionStore store;
+
+        Part(long first, long last, Path path, BinaryTransactionStore store) {
+            this.first = first;
+            this.last = last;
+            this.path = path;
+            this.store = store;
+        }
+    }
+
+    /**
+     * A new file built by one of the {@code prepare} methods, to be installed in place of
+     * the files it was built from.
+     */
+    static final class Prepared {
+        private final List<Part> inputs;
+        private final long first;
+        private final long last;
+        private final Path path;
+
+        private Prepared(List<Part> inputs, long first, long last, Path path) {
+            this.inputs = inputs;
+            this.first = first;
+            this.last = last;
+            this.path = path;
+        }
+    }
+
+    /**
+     * @param path the single-file store the history used to be kept in, e.g. transactions.bin;
+     *             the parts are kept next to it
+     */
+    TransactionArchive(Path path) {
+        Path absolute = path.toAbsolutePath();
+        this.directory = absolute.getParent();
+        this.legacyPath = absolute;
+        String name = absolute.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        this.stem = dot < 0 ? name : name.substring(0, dot);
+        String extension = dot < 0 ? "" : name.substring(dot);
+        this.partName = Pattern.compile(Pattern.quote(stem) + "\\.(\\d+)-(\\d+)" + Pattern.quote(extension));
+        load();
+    }
+
+    private void load() {
+        List<long[]> ranges = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = partName.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ranges.add(new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))});
+                    paths.add(file);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error listing " + directory + ": " + e.getMessage());
+        }
+        if (Files.exists(legacyPath)) {
+            ranges.add(new long[]{0, 0});
+            paths.add(legacyPath);
+        }
+
+        // Oldest first, and of files starting at the same fold the widest first, so a file
+        // whose range another covers comes right after the one that covers it
+        Integer[] order = new Integer[paths.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> ranges.get(i)[0])
+                .thenComparing(Comparator.<Integer>comparingLong(i -> ranges.get(i)[1]).reversed()));
+
+        for (int i : order) {
+            long first = ranges.get(i)[0];
+            long last = ranges.get(i)[1];
+            Path file = paths.get(i);
+            if (!parts.isEmpty() && parts.get(parts.size() - 1).last >= last) {
+                // Already merged into the file before it
+                deleteQuietly(file);
+                continue;
+            }
+            try {
+                parts.add(new Part(first, last, file, BinaryTransactionStore.open(file)));
+            } catch (IOException e) {
+                System.err.println("Error opening " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The current files, each with a reference taken for the caller. Close the snapshot to
+     * give them back.
+     */
+    synchronized Snapshot acquire() {
+        List<BinaryTransactionStore> stores = new ArrayList<>(parts.size());
+        for (Part part : parts) {
+            part.store.retain(); // can't fail: the archive holds a reference until it drops the part
+            stores.add(part.store);
+        }
+        return new Snapshot(stores);
+    }
+
+    /**
+     * True if the newest file was built from a segment with this length and CRC-32, i.e. a
+     * fold got as far as installing it but not as far as deleting the segment.
+     */
+    synchronized boolean holdsSegment(long sourceLength, int sourceCrc) {
+        if (parts.isEmpty()) return false;
+        BinaryTransactionStore newest = parts.get(parts.size() - 1).store;
+        return newest.sourceLength() == sourceLength && newest.sourceCrc() == sourceCrc;
+    }
+
+    /**
+     * Writes a segment's rows as a new file to go after the current ones.
+     */
+    Prepared prepareFold(List<Transaction> rows, long sourceLength, int sourceCrc) throws IOException {
+        long fold = nextFold();
+        Path path = partPath(fold, fold);
+        BinaryTransactionStore.write(path, rows, sourceLength, sourceCrc);
+        return new Prepared(Collections.emptyList(), fold, fold, path);
+    }
+
+    /**
+     * Merges every file into one, without anything that involves a {@code deleted} account.
+     * Returns null when there are no files.
+     */
+    Prepared prepareWithout(Set<String> deleted) throws IOException {
+        List<Part> inputs;
+        synchronized (this) {
+            inputs = new ArrayList<>(parts);
+        }
+        return inputs.isEmpty() ? null : prepareMerge(inputs, deleted);
+    }
+
+    /**
+     * Merges the two newest files if the newer has grown to at least half the size of the
+     * older. Returns null when no merge is due.
+     */
+    Prepared prepareMergeIfDue() throws IOException {
+        List<Part> inputs;
+        synchronized (this) {
+            int count = parts.size();
+            if (count < 2) return null;
+            Part older = parts.get(count - 2);
+            Part newer = parts.get(count - 1);
+            if ((long) newer.store.size() * 2 < older.store.size()) return null;
+            inputs = Arrays.asList(older, newer);
+        }
+        return prepareMerge(inputs, Collections.emptySet());
+    }
+
+    private Prepared prepareMerge(List<Part> inputs, Set<String> deleted) throws IOException {
+        List<BinaryTransactionStore> stores = new ArrayList<>(inputs.size());
+        for (Part part : inputs) {
+            stores.add(part.store);
+        }
+        BinaryTransactionStore newest = stores.get(stores.size() - 1);
+        // The merged file's range covers its inputs', and ends on a fold number not used
+        // yet, so its name never clashes with a file still in use
+        long first = inputs.get(0).first;
+        long last = nextFold();
+        Path path = partPath(first, last);
+        BinaryTransactionStore.merge(path, stores, deleted, newest.sourceLength(), newest.sourceCrc());
+        return new Prepared(inputs, first, last, path);
+    }
+
+    /**
+     * Puts a prepared file in place of the files it was built from and deletes those.
+     * Readers already holding them keep them until they close their snapshots.
+     */
+    void install(Prepared prepared) throws IOException {
+        BinaryTransactionStore store = BinaryTransactionStore.open(prepared.path);
+        synchronized (this) {
+            if (!parts.containsAll(prepared.inputs)) {
+                store.close();
+                throw new IllegalStateException("Transaction archive changed while a file was prepared.");
+            }
+            int at = prepared.inputs.isEmpty() ? parts.size() : parts.indexOf(prepared.inputs.get(0));
+            parts.removeAll(prepared.inputs);
+            parts.add(at, new Part(prepared.first, prepared.last, prepared.path, store));
+        }
+        for (Part input : prepared.inputs) {
+            deleteQuietly(input.path);
+            input.store.close();
+        }
+    }
+
+    /**
+     * Deletes a prepared file that won't be installed.
+     */
+    void discard(Prepared prepared) {
+        if (prepared != null) deleteQuietly(prepared.path);
+    }
+
+    private synchronized long nextFold() {
+        return parts.isEmpty() ? 1 : parts.get(parts.size() - 1).last + 1;
+    }
+
+    private Path partPath(long first, long last) {
+        String name = legacyPath.getFileName().toString();
+        return directory.resolve(stem + "." + first + "-" + last + name.substring(stem.length()));
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Error removing " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Part part : parts) {
+            part.store.close();
+        }
+        parts.clear();
+    }
+
+    /**
+     * The archive's files as of {@link #acquire()}, kept mapped until closed. Records get
+     * ids numbered across the whole snapshot, oldest file first.
+     */
+    static final class Snapshot implements AutoCloseable {
+        private final List<BinaryTransactionStore> stores;
+        private final long[] firstIds;
+        private boolean closed = false;
+
+        private Snapshot(List<BinaryTransactionStore> stores) {
+            this.stores = stores;
+            this.firstIds = new long[stores.size()];
+            long next = 0;
+            for (int i = 0; i < stores.size(); i++) {
+                firstIds[i] = next;
+                next += stores.get(i).size();
+            }
+        }
+
+        /**
+         * Another snapshot of the same files, with its own references.
+         */
+        Snapshot retain() {
+            for (BinaryTransactionStore store : stores) {
+                store.retain();
+            }
+            return new Snapshot(stores);
+        }
+
+        int count(String accountId) {
+            int count = 0;
+            for (BinaryTransactionStore store : stores) {
+                int account = store.indexOf(accountId);
+                if (account != BinaryTransactionStore.NO_ACCOUNT) count += store.recordCount(account);
+            }
+            return count;
+        }
+
+        /**
+         * The account's records, oldest file first and oldest first within each file.
+         * Valid until the snapshot is closed.
+         */
+        Iterator<Transaction> transactions(String accountId) {
+            return new Iterator<Transaction>() {
+                private int file = -1;
+                private int nextRecord = 0;
+                private int endRecord = 0;
+
+                @Override
+                public boolean hasNext() {
+                    while (nextRecord == endRecord && file + 1 < stores.size()) {
+                        BinaryTransactionStore store = stores.get(++file);
+                        int account = store.indexOf(accountId);
+                        nextRecord = account == BinaryTransactionStore.NO_ACCOUNT ? 0 : store.firstRecord(account);
+                        endRecord = account == BinaryTransactionStore.NO_ACCOUNT ? 0 : nextRecord + store.recordCount(account);
+                    }
+                    return nextRecord < endRecord;
+                }
+
+                @Override
+                public Transaction next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    int record = nextRecord++;
+                    return stores.get(file).toTransaction(record, accountId, "bin-" + (firstIds[file] + record));
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (BinaryTransactionStore store : stores) {
+                store.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package datasource;
+
+import domain.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Forward-only cursor over one account's transactions, read straight from the history
+ * files: the account's records in the binary stores first, then its rows in a segment a
+ * running checkpoint has set aside (if any), then its rows in transactions.csv. Rows are
+ * read at the offsets the history index has for the account, so other accounts' rows are
+ * never touched. Only the row being returned is held in memory, and nothing is read until
+ * the caller asks for the next transaction, so a slow consumer simply slows the read down.
+ *
+ * Rows are returned in the order they were saved in (binary records oldest first). The cursor sees
+ * the files as they were when it was opened; rows saved afterwards are not included.
+ * Always close it, e.g. with try-with-resources, to release the files.
+ */
+public class TransactionCursor implements Iterator<Transaction>, AutoCloseable {
+    private final String accountId;
+    private final TransactionTombstones tombstones;
+
+    // Released on close
+    private final TransactionArchive.Snapshot archived;
+    private final Iterator<Transaction> records;
+
+    private final LazyTransactionHistory.Rows rows;
+    private final FileChannel segment;
+    private final FileChannel csv;
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+    private int nextRow = 0;
+
+    private Transaction next;
+    private boolean closed = false;
+
+    // Takes over {@code archived}. The files must still be the ones {@code rows} was taken from.
+    TransactionCursor(String accountId, TransactionArchive.Snapshot archived, LazyTransactionHistory.Rows rows,
+                      Path segmentPath, Path csvPath, TransactionTombstones tombstones) throws IOException {
+        this.accountId = accountId;
+        this.tombstones = tombstones;
+        this.archived = archived;
+        this.records = archived.transactions(accountId);
+        this.rows = rows;
+
+        FileChannel opened = null;
+        try {
+            opened = rows.segmentCount > 0 ? FileChannel.open(segmentPath, StandardOpenOption.READ) : null;
+            csv = rows.offsets.length > rows.segmentCount ? FileChannel.open(csvPath, StandardOpenOption.READ) : null;
+        } catch (IOException e) {
+            closeQuietly(opened);
+            archived.close();
+            throw e;
+        }
+        segment = opened;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !closed) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Transaction current = next;
+        next = null;
+        return current;
+    }
+
+    // Rows of deleted accounts stay in the files until compaction and are skipped here
+    private Transaction advance() {
+        Transaction transaction;
+        do {
+            transaction = advanceRaw();
+        } while (transaction != null && tombstones.covers(transaction));
+        return transaction;
+    }
+
+    private Transaction advanceRaw() {
+        if (records.hasNext()) {
+            return records.next();
+        }
+        while (nextRow < rows.offsets.length) {
+            int row = nextRow++;
+            try {
+                boolean inSegment = row < rows.segmentCount;
+                Transaction transaction = LazyTransactionHistory.readRow(inSegment ? segment : csv, inSegment,
+                        rows.offsets[row], buffer, rows::legacyTimestamp);
+                if (transaction != null) return transaction;
+            } catch (IOException e) {
+                System.err.println("Error streaming transactions for " + accountId + ": " + e.getMessage());
+                nextRow = rows.offsets.length;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        next = null;
+        closeQuietly(segment);
+        closeQuietly(csv);
+        archived.close();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing transaction cursor: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package datasource;
+
+import domain.Money;
+import domain.Transaction;
+import metrics.Metrics;
+import metrics.OperationStats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived appender for transactions.csv.
+ * Rows are formatted into a shared buffer and written through one open FileChannel
+ * in batches, as often as the configured {@link DurabilityPolicy} asks for.
+ * Each append reports the byte offset its row will have in the file.
+ *
+ * A failed write keeps its rows buffered and cuts the file back to where the last good
+ * flush ended, so the next flush (at the latest after {@link #RETRY_MILLIS}) writes the same
+ * rows at the same offsets.
+ */
+class TransactionLogWriter {
+    // Retry period for a failed flush when the policy has no background flush of its own
+    static final long RETRY_MILLIS = 1000;
+
+    private static final OperationStats FLUSH_STATS = Metrics.operation("transactions.flush");
+
+    private final Path path;
+    private final String header;
+    private final DurabilityPolicy policy;
+
+    private final StringBuilder pending = new StringBuilder(4096);
+    private int pendingRecords = 0;
+    // File offset just past the last buffered row
+    private long endOffset = 0;
+    // File offset just past the last row that was written and forced
+    private long flushedOffset = 0;
+    private FileChannel channel;
+    private final ScheduledExecutorService flusher;
+    private final Thread flushOnExit;
+
+    TransactionLogWriter(String fileName, String header, DurabilityPolicy policy) {
+        this.path = Paths.get(fileName);
+        this.header = header;
+        this.policy = policy;
+        open();
+
+        long interval = policy.flushIntervalMillis();
+        long period = interval > 0 ? interval : RETRY_MILLIS;
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transactions-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+
+        // Don't lose buffered rows when the window is closed; close() takes this back
+        flushOnExit = new Thread(this::flush, "transactions-flush-on-exit");
+        Runtime.getRuntime().addShutdownHook(flushOnExit);
+    }
+
+    private synchronized void open() {
+        try {
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                writeFully(ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+            flushedOffset = channel.size();
+            // Rows a failed flush left buffered follow whatever is in the file now
+            endOffset = flushedOffset + utf8Length(pending, 0, pending.length());
+        } catch (IOException e) {
+            System.err.println("Error opening " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Buffers one row and returns the offset it will be written at.
+     */
+    synchronized long append(Transaction transaction) {
+        long offset = bufferRow(transaction);
+        pendingRecords++;
+        if (policy.shouldFlush(pendingRecords)) {
+            flush();
+        }
+        return offset;
+    }
+
+    synchronized long[] appendAll(List<Transaction> transactions) {
+        long[] offsets = new long[transactions.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = bufferRow(transactions.get(i));
+        }
+        pendingRecords += transactions.size();
+        if (policy.shouldFlush(pendingRecords)) {
+            flush();
+        }
+        return offsets;
+    }
+
+    private long bufferRow(Transaction transaction) {
+        int start = pending.length();
+        appendRow(pending, transaction);
+        long offset = endOffset;
+        endOffset += utf8Length(pending, start, pending.length());
+        return offset;
+    }
+
+    /**
+     * Length of the file including rows still buffered.
+     */
+    synchronized long size() {
+        return endOffset;
+    }
+
+    /**
+     * Switches to the file now at the path, after it was replaced by a rewritten copy.
+     */
+    synchronized void reopen() {
+        flush();
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + path + ": " + e.getMessage());
+        }
+        open();
+    }
+
+    /**
+     * Writes out and forces everything buffered so far.
+     *
+     * @return false if the rows could not be written; they stay buffered for the next try
+     */
+    synchronized boolean flush() {
+        if (pendingRecords == 0) return true;
+        if (channel == null) return false;
+
+        long start = System.nanoTime();
+        try {
+            // Drop the part of an earlier failed write that did reach the file
+            if (channel.size() != flushedOffset) {
+                channel.truncate(flushedOffset);
+            }
+            writeFully(ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        } catch (IOException e) {
+            FLUSH_STATS.recordError();
+            System.err.println("Error writing " + pendingRecords + " transactions to CSV, will retry: "
+                    + e.getMessage());
+            return false;
+        } finally {
+            FLUSH_STATS.record(start);
+        }
+        flushedOffset = endOffset;
+        pending.setLength(0);
+        pendingRecords = 0;
+        return true;
+    }
+
+    synchronized void close() {
+        if (!flush()) {
+            System.err.println(pendingRecords + " transactions could not be written to " + path + ".");
+        }
+        flusher.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(flushOnExit);
+        } catch (IllegalStateException e) {
+            // Already shutting down, e.g. closed from another shutdown hook
+        }
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + path + ": " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int utf8Length(CharSequence text, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Same row layout the loader expects: type,amount,source,target,timestamp
+    static void appendRow(StringBuilder sb, Transaction transaction) {
+        String target = transaction.getTargetAccountId();
+        sb.append(transaction.getType().name()).append(',');
+        Money.appendTo(sb, transaction.getAmountCents()).append(',')
+                .append(transaction.getSourceAccountId()).append(',');
+        if (target != null) {
+            sb.append(target);
+        }
+        sb.append(',').append(transaction.getDate().getTime()).append('\n');
+    }
+}
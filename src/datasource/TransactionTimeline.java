@@ -0,0 +1,232 @@
+package datasource;
+
+import domain.AccountHistory.BalanceSnapshot;
+import domain.Transaction;
+import domain.TransactionType;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One account's transactions kept in timestamp order, with the timestamps held in a
+ * parallel primitive array. Date-range lookups binary-search that array, so they cost
+ * O(log n + k) instead of a scan over the whole history.
+ *
+ * New transactions almost always arrive in time order and are appended in amortized O(1);
+ * an out-of-order one is slotted in after any entries with the same timestamp.
+ *
+ * Alongside each entry it keeps the running net change of the balance up to and including
+ * that entry, so a balance at any point in time is one lookup rather than a replay.
+ * Per-type totals are maintained the same way, see {@link TransactionTotals}.
+ *
+ * For type-filtered pages it also keeps, per type, the positions of that type's entries.
+ * That index is built on the first filtered query and extended by appends.
+ */
+class TransactionTimeline {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private Transaction[] transactions = new Transaction[INITIAL_CAPACITY];
+    private long[] runningNetCents = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private final TransactionTotals totals = new TransactionTotals();
+    // type ordinal -> ascending positions of entries of that type; null until first needed
+    private int[][] typePositions;
+    private int[] typeCounts;
+
+    synchronized void add(Transaction transaction) {
+        long timestamp = transaction.getDate().getTime();
+        ensureCapacity(size + 1);
+
+        int at = size;
+        if (size > 0 && timestamps[size - 1] > timestamp) {
+            at = upperBound(timestamp);
+            System.arraycopy(timestamps, at, timestamps, at + 1, size - at);
+            System.arraycopy(transactions, at, transactions, at + 1, size - at);
+            System.arraycopy(runningNetCents, at, runningNetCents, at + 1, size - at);
+        }
+        timestamps[at] = timestamp;
+        transactions[at] = transaction;
+        size++;
+        totals.add(transaction);
+        if (typePositions != null) {
+            if (at == size - 1) {
+                addTypePosition(transaction.getType().ordinal(), at);
+            } else {
+                typePositions = null; // positions after the insert shifted; rebuild when next needed
+            }
+        }
+
+        // Only an out-of-order insert has later entries whose running totals move
+        for (int i = at; i < size; i++) {
+            runningNetCents[i] = netBefore(i) + effectOf(transactions[i]);
+        }
+    }
+
+    private long netBefore(int index) {
+        return index == 0 ? 0 : runningNetCents[index - 1];
+    }
+
+    private static long effectOf(Transaction transaction) {
+        return transaction.getType().balanceEffect(transaction.getAmountCents());
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= timestamps.length) return;
+        int capacity = Math.max(needed, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        transactions = Arrays.copyOf(transactions, capacity);
+        runningNetCents = Arrays.copyOf(runningNetCents, capacity);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * All transactions, oldest first.
+     */
+    synchronized List<Transaction> toList() {
+        return new ArrayList<>(Arrays.asList(transactions).subList(0, size));
+    }
+
+    /**
+     * Transactions with {@code fromMillis <= timestamp < toMillis}, oldest first.
+     */
+    synchronized List<Transaction> range(long fromMillis, long toMillis) {
+        int from = lowerBound(fromMillis);
+        int to = lowerBound(toMillis);
+        if (from >= to) return new ArrayList<>();
+        return new ArrayList<>(Arrays.asList(transactions).subList(from, to));
+    }
+
+    /**
+     * Net balance change from every transaction dated at or before {@code atMillis}.
+     */
+    synchronized long netChangeAsOf(long atMillis) {
+        return netBefore(upperBound(atMillis));
+    }
+
+    /**
+     * Running balances after entries {@code offset .. offset + limit - 1}, oldest first.
+     * Only the requested page is materialized.
+     */
+    synchronized List<BalanceSnapshot> runningBalances(long initialBalanceCents, int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, size));
+        int to = (int) Math.min((long) from + Math.max(0, limit), size);
+        List<BalanceSnapshot> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(new BalanceSnapshot(new Date(timestamps[i]), initialBalanceCents + runningNetCents[i]));
+        }
+        return page;
+    }
+
+    synchronized long count(TransactionType type) {
+        return totals.count(type);
+    }
+
+    /**
+     * Number of entries with {@code fromMillis <= timestamp < toMillis}, of {@code type}
+     * when it isn't null.
+     */
+    synchronized int count(long fromMillis, long toMillis, TransactionType type) {
+        int[] bounds = bounds(fromMillis, toMillis, type);
+        return bounds[1] - bounds[0];
+    }
+
+    /**
+     * Entries {@code offset .. offset + limit - 1} of the same selection, oldest or newest first.
+     * Costs O(log n + limit) whatever the filter.
+     */
+    synchronized List<Transaction> page(long fromMillis, long toMillis, TransactionType type,
+                                        boolean newestFirst, int offset, int limit) {
+        int[] bounds = bounds(fromMillis, toMillis, type);
+        int matches = bounds[1] - bounds[0];
+        int from = Math.max(0, Math.min(offset, matches));
+        int to = (int) Math.min((long) from + Math.max(0, limit), matches);
+
+        int[] positions = type == null ? null : typePositions[type.ordinal()];
+        List<Transaction> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            int rank = newestFirst ? bounds[1] - 1 - i : bounds[0] + i;
+            page.add(transactions[positions == null ? rank : positions[rank]]);
+        }
+        return page;
+    }
+
+    // [start, end) into the timeline, or into the type's position list when filtering by type
+    private int[] bounds(long fromMillis, long toMillis, TransactionType type) {
+        int lo = lowerBound(fromMillis);
+        int hi = Math.max(lo, lowerBound(toMillis));
+        if (type == null) return new int[] {lo, hi};
+
+        if (typePositions == null) buildTypePositions();
+        int[] positions = typePositions[type.ordinal()];
+        int count = typeCounts[type.ordinal()];
+        return new int[] {firstAtLeast(positions, count, lo), firstAtLeast(positions, count, hi)};
+    }
+
+    private void buildTypePositions() {
+        int types = TransactionType.values().length;
+        typePositions = new int[types][];
+        typeCounts = new int[types];
+        for (int t = 0; t < types; t++) {
+            typePositions[t] = new int[INITIAL_CAPACITY];
+        }
+        for (int i = 0; i < size; i++) {
+            addTypePosition(transactions[i].getType().ordinal(), i);
+        }
+    }
+
+    private void addTypePosition(int type, int position) {
+        int[] positions = typePositions[type];
+        if (typeCounts[type] == positions.length) {
+            positions = typePositions[type] = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[typeCounts[type]++] = position;
+    }
+
+    private static int firstAtLeast(int[] values, int count, int value) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    synchronized Map<String, Long> sumsByType() {
+        return totals.sumsByType();
+    }
+
+    synchronized Map<String, Long> sumsByType(YearMonth month) {
+        return totals.sumsByType(month);
+    }
+
+    // First index whose timestamp is >= value
+    private int lowerBound(long value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // First index whose timestamp is > value
+    private int upperBound(long value) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,92 @@
+package datasource;
+
+import domain.Transaction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Account ids whose transactions have been deleted but are still present in the history
+ * files. Each id is one line in the tombstone file; readers skip any row that has a
+ * tombstoned account on either side until compaction rewrites the files without them.
+ */
+class TransactionTombstones {
+    private final Path path;
+    private final Set<String> accountIds = ConcurrentHashMap.newKeySet();
+
+    TransactionTombstones(String fileName) {
+        this.path = Paths.get(fileName);
+    }
+
+    void load() {
+        if (!Files.exists(path)) return;
+        try {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) accountIds.add(line.trim());
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading " + path + ": " + e.getMessage());
+        }
+    }
+
+    boolean isEmpty() {
+        return accountIds.isEmpty();
+    }
+
+    boolean covers(String accountId) {
+        return accountId != null && accountIds.contains(accountId);
+    }
+
+    boolean covers(Transaction transaction) {
+        return !accountIds.isEmpty() &&
+                (covers(transaction.getSourceAccountId()) || covers(transaction.getTargetAccountId()));
+    }
+
+    /**
+     * Records the ids durably before they take effect.
+     */
+    synchronized void add(Collection<String> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (String id : ids) {
+            sb.append(id).append('\n');
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error writing " + path + ": " + e.getMessage());
+        }
+        accountIds.addAll(ids);
+    }
+
+    Set<String> snapshot() {
+        return new HashSet<>(accountIds);
+    }
+
+    /**
+     * Drops ids whose rows compaction has removed from the history files.
+     */
+    synchronized void retire(Set<String> compacted) {
+        accountIds.removeAll(compacted);
+        try {
+            if (accountIds.isEmpty()) {
+                Files.deleteIfExists(path);
+                return;
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.write(tmp, accountIds, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error rewriting " + path + ": " + e.getMessage());
+        }
+    }
+}
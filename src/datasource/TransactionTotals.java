@@ -0,0 +1,65 @@
+package datasource;
+
+import domain.Transaction;
+import domain.TransactionType;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-type transaction counts and amount sums for one account, kept up to date as
+ * transactions are added. Totals are held in arrays indexed by TransactionType ordinal,
+ * overall and per calendar month, so a summary never has to look at the history itself.
+ *
+ * Not thread-safe on its own; TransactionTimeline only touches it under its own lock.
+ */
+class TransactionTotals {
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final long[] counts = new long[TYPES.length];
+    private final long[] sums = new long[TYPES.length];
+    private final Map<YearMonth, long[]> monthlySums = new HashMap<>();
+
+    void add(Transaction transaction) {
+        int type = transaction.getType().ordinal();
+        counts[type]++;
+        sums[type] += transaction.getAmountCents();
+
+        YearMonth month = YearMonth.from(Instant.ofEpochMilli(transaction.getDate().getTime()).atZone(ZONE));
+        // Counts first, then sums
+        long[] bucket = monthlySums.computeIfAbsent(month, m -> new long[TYPES.length * 2]);
+        bucket[type]++;
+        bucket[TYPES.length + type] += transaction.getAmountCents();
+    }
+
+    long count(TransactionType type) {
+        return counts[type.ordinal()];
+    }
+
+    /**
+     * Amount sums keyed by type name, covering only the types that occur.
+     */
+    Map<String, Long> sumsByType() {
+        return toMap(counts, sums, 0);
+    }
+
+    Map<String, Long> sumsByType(YearMonth month) {
+        long[] bucket = monthlySums.get(month);
+        return bucket == null ? new LinkedHashMap<>() : toMap(bucket, bucket, TYPES.length);
+    }
+
+    private static Map<String, Long> toMap(long[] counts, long[] sums, int sumOffset) {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        for (TransactionType type : TYPES) {
+            if (counts[type.ordinal()] > 0) {
+                summary.put(type.name(), sums[sumOffset + type.ordinal()]);
+            }
+        }
+        return summary;
+    }
+}
@@ -1,17 +1,58 @@
 package datasource;
 
 import domain.User;
+import metrics.Metrics;
+import metrics.OperationStats;
 import java.io.*;
 import java.util.*;
 import java.nio.file.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class UserRepository {
     private static final String FILE_PATH = "users.csv";
-    private final Map<String, User> userCache = new HashMap<>(); // Cache for quick lookup
+    private static final String JOURNAL_FILE_PATH = "users.journal";
+    private static final String HEADER = "userId,email,passwordHash";
+    // Journal records accumulated before a checkpoint is requested rather than left to the timer
+    private static final int CHECKPOINT_THRESHOLD = 500;
+    private static final long CHECKPOINT_PERIOD_MILLIS = 30_000;
+
+    private static final OperationStats SAVE_STATS = Metrics.operation("users.save");
+    private static final OperationStats LOAD_STATS = Metrics.operation("users.loadCsv");
+    private static final OperationStats WRITE_STATS = Metrics.operation("users.writeCsv");
+
+    private final Map<String, User> userCache = new ConcurrentHashMap<>(); // Cache for quick lookup
+    // Secondary index: userId -> User, kept in step with userCache
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+
+    // Saves append one record here; users.csv is only rewritten by the background checkpoint
+    private final ChangeJournal journal = new ChangeJournal(JOURNAL_FILE_PATH, 3);
+    private final CheckpointScheduler checkpoints;
+    // False when the scheduler is shared through DataContext, which shuts it down itself
+    private final boolean ownsCheckpoints;
+    private final CheckpointScheduler.Task usersCheckpoint = new CheckpointScheduler.Task() {
+        public boolean isDue() { return journal.recordsSinceCheckpoint() > 0 || journal.hasRetired(); }
+        public void run() { checkpoint(); }
+    };
 
     public UserRepository() {
+        this(null);
+    }
+
+    // DataContext passes the scheduler it shares between repositories; null starts a private one
+    UserRepository(CheckpointScheduler sharedCheckpoints) {
+        this.ownsCheckpoints = sharedCheckpoints == null;
+        this.checkpoints = sharedCheckpoints != null ? sharedCheckpoints
+                : new CheckpointScheduler("users-checkpoint", CHECKPOINT_PERIOD_MILLIS);
+        long loadStart = System.nanoTime();
         loadDataFromCsv();
+        LOAD_STATS.record(loadStart);
+        int replayed = journal.replay(this::applyJournalRecord);
+        journal.open();
+        checkpoints.register(usersCheckpoint);
+        if (replayed > 0) {
+            checkpoints.request(usersCheckpoint);
+        }
     }
 
     private void loadDataFromCsv() {
@@ -19,7 +60,7 @@ public class UserRepository {
         if (!Files.exists(path)) {
             // Create file and write header if it doesn't exist
             try {
-                Files.writeString(path, "userId,email,passwordHash\n", StandardOpenOption.CREATE_NEW);
+                Files.writeString(path, HEADER + "\n", StandardOpenOption.CREATE_NEW);
             } catch (IOException e) {
                 System.err.println("Error creating users.csv: " + e.getMessage());
             }
@@ -34,8 +75,7 @@ public class UserRepository {
                 String[] parts = line.split(",", 3);
                 if (parts.length == 3) {
                     // Note: We need a special User constructor or setter for loading
-                    User loadedUser = new User(parts[0], parts[1], parts[2], this);
-                    userCache.put(parts[1], loadedUser); // Key by email
+                    cacheUser(new User(parts[0], parts[1], parts[2], this));
                 }
             }
         } catch (IOException e) {
@@ -43,45 +83,108 @@ public class UserRepository {
         }
     }
 
-    private void writeDataToCsv() {
+    // Returns false if the snapshot couldn't be written or swapped in
+    private boolean writeDataToCsv() {
         List<String> lines = userCache.values().stream()
                 .map(User::toCsvString) // Requires a toCsvString() method in User class
                 .collect(Collectors.toList());
 
-        lines.add(0, "userId,email,passwordHash"); // Add header back
+        lines.add(0, HEADER); // Add header back
 
+        // Write the new snapshot beside the old one and swap it in, so a crash never leaves half a file
+        Path tmp = Paths.get(FILE_PATH + ".tmp");
         try {
-            Files.write(Paths.get(FILE_PATH), lines, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.write(tmp, lines);
+            Files.move(tmp, Paths.get(FILE_PATH), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
         } catch (IOException e) {
             System.err.println("Error writing users to CSV: " + e.getMessage());
+            return false;
         }
     }
 
-    public Optional<User> findByEmail(String email) {
-        return Optional.ofNullable(userCache.get(email));
+    private void applyJournalRecord(String[] parts) {
+        if (ChangeJournal.DELETE.equals(parts[0])) {
+            uncacheUser(parts[1]);
+        } else {
+            cacheUser(new User(parts[1], parts[2], parts[3], this));
+        }
     }
 
-    public void save(User user) {
+    // Every change to userCache goes through these two so the userId index never drifts
+    private void cacheUser(User user) {
+        User previous = usersById.put(user.getUserId(), user);
+        if (previous != null && !previous.getEmail().equals(user.getEmail())) {
+            userCache.remove(previous.getEmail(), previous);
+        }
         userCache.put(user.getEmail(), user);
-        writeDataToCsv();
     }
 
-    public void delete(String id) {
-        String emailKeyToRemove = null;
+    private User uncacheUser(String userId) {
+        User removed = usersById.remove(userId);
+        if (removed != null) {
+            userCache.remove(removed.getEmail(), removed);
+        }
+        return removed;
+    }
 
-        for (User user : userCache.values()) {
-            if (user.getUserId().equals(id)) {
-                emailKeyToRemove = user.getEmail();
-                break;
-            }
+    // Runs on the checkpoint thread: saves made meanwhile land in the fresh journal.
+    // A failed snapshot keeps the set-aside journal for replay and the next checkpoint.
+    private void checkpoint() {
+        if (!journal.rotate()) return;
+
+        long start = System.nanoTime();
+        boolean written = writeDataToCsv();
+        if (!written) WRITE_STATS.recordError();
+        WRITE_STATS.record(start);
+        if (written) journal.retire();
+    }
+
+    private void maybeCheckpoint() {
+        if (journal.recordsSinceCheckpoint() >= CHECKPOINT_THRESHOLD) {
+            checkpoints.request(usersCheckpoint);
         }
+    }
 
-        if (emailKeyToRemove != null) {
-            userCache.remove(emailKeyToRemove);
-            writeDataToCsv(); // persist changes to users.csv
+    public Optional<User> findByEmail(String email) {
+        return Optional.ofNullable(userCache.get(email));
+    }
+
+    public Optional<User> findById(String userId) {
+        return Optional.ofNullable(usersById.get(userId));
+    }
+
+    public void save(User user) {
+        long start = System.nanoTime();
+        try {
+            cacheUser(user);
+            // The row is read inside the journal lock, so the last record wins for concurrent saves
+            journal.append(() -> ChangeJournal.UPSERT + "," + user.toCsvString());
+            maybeCheckpoint();
+        } catch (RuntimeException e) {
+            SAVE_STATS.recordError();
+            throw e;
+        } finally {
+            SAVE_STATS.record(start);
+        }
+    }
+
+    public void delete(String id) {
+        if (uncacheUser(id) != null) {
+            journal.append(ChangeJournal.DELETE + "," + id);
+            maybeCheckpoint();
         } else {
             System.err.println("No user found with id: " + id);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Stops the checkpoint thread unless it is shared. Saves are already durable in the journal.
+     */
+    public void close() {
+        if (ownsCheckpoints) {
+            checkpoints.shutdown();
+        }
+    }
+
+}
@@ -1,95 +1,168 @@
 package domain;
 
 import datasource.AccountRepository;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
 
 public class Account {
     private final String accountId;
     private final String userId;
-    protected double balance;
+    // Balance in cents. Single-account changes are compare-and-set; transfers and batches
+    // also hold the account's stripe lock through AccountRepository.runAtomically
+    private final AtomicLong balanceCents;
     protected String accountType = "Basic";
     protected final AccountRepository accountRepository;
 
-    public Account(String userId, double initialBalance, AccountRepository repo) {
+    public Account(String userId, long initialBalanceCents, AccountRepository repo) {
         this.accountId = UUID.randomUUID().toString();
         this.userId = userId;
-        this.balance = initialBalance;
+        this.balanceCents = new AtomicLong(initialBalanceCents);
         this.accountRepository = repo;
     }
 
-    public Account(String accountId, String userId, String accountType, double initialBalance, AccountRepository repo) {
+    public Account(String accountId, String userId, String accountType, long initialBalanceCents, AccountRepository repo) {
         this.accountId = accountId;
         this.userId = userId;
         this.accountType = accountType;
-        this.balance = initialBalance;
+        this.balanceCents = new AtomicLong(initialBalanceCents);
         this.accountRepository = repo;
     }
 
     // Getters
     public String getAccountId() { return accountId; }
     public String getUserId() { return userId; }
-    public double getBalance() { return balance; }
+    public long getBalanceCents() { return balanceCents.get(); }
     public String getAccountType() { return accountType; }
 
     /**
      * Serializes the Account object into a CSV line format.
      */
     public String toCsvString() {
-        return String.format("%s,%s,%s,%.2f",
-                this.accountId, this.userId, this.accountType, this.balance);
+        StringBuilder sb = new StringBuilder(96)
+                .append(this.accountId).append(',')
+                .append(this.userId).append(',')
+                .append(this.accountType).append(',');
+        return Money.appendTo(sb, getBalanceCents()).toString();
     }
 
-    // Core business logic methods (deposit, withdraw, transfer, viewTransactions remain as before...)
-    public void deposit(double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Deposit amount must be positive.");
-        this.balance += amount;
-        Transaction tx = new Transaction(TransactionType.DEPOSIT, amount, this.accountId, null);
+    /**
+     * Atomically takes {@code cents} from the balance unless that would leave it
+     * below {@code floorCents}. Returns false, changing nothing, when it would.
+     */
+    protected final boolean tryDebit(long cents, long floorCents) {
+        long current;
+        do {
+            current = balanceCents.get();
+            if (current - cents < floorCents) return false;
+        } while (!balanceCents.compareAndSet(current, current - cents));
+        return true;
+    }
+
+    protected final void credit(long cents) {
+        balanceCents.addAndGet(cents);
+    }
+
+    /**
+     * Atomically adds {@code deltaFor.applyAsLong(balance)} to the balance it was computed
+     * from, and returns the amount added.
+     *
+     * @throws IllegalStateException if that would leave the balance below {@code floorCents}
+     */
+    protected final long adjustBalance(LongUnaryOperator deltaFor, long floorCents) {
+        long current;
+        long delta;
+        do {
+            current = balanceCents.get();
+            delta = deltaFor.applyAsLong(current);
+            if (delta == 0) return 0;
+            if (delta < 0 && current + delta < floorCents) throw new IllegalStateException("Insufficient funds.");
+        } while (!balanceCents.compareAndSet(current, current + delta));
+        return delta;
+    }
+
+    // Persists a withdrawal whose debit has already been applied
+    protected final void recordWithdrawal(long amountCents) {
+        Transaction tx = new Transaction(TransactionType.WITHDRAWAL, amountCents, this.accountId, null);
         accountRepository.saveTransaction(tx);
         accountRepository.save(this); // Saves to CSV
     }
 
-    public void withdraw(double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Withdrawal amount must be positive.");
-        if (this.balance < amount) throw new IllegalStateException("Insufficient funds.");
-        this.balance -= amount;
-        Transaction tx = new Transaction(TransactionType.WITHDRAWAL, amount, this.accountId, null);
+    /**
+     * The lowest balance a withdrawal may leave behind.
+     */
+    protected long balanceFloorCents() {
+        return 0;
+    }
+
+    /**
+     * Takes back a deposit applied by a batch that is being rolled back.
+     * The batch never persisted it, so only the in-memory balance changes.
+     *
+     * @throws IllegalStateException if the balance would drop below {@link #balanceFloorCents()}
+     */
+    public void undoDeposit(long amountCents) {
+        if (!tryDebit(amountCents, balanceFloorCents())) {
+            throw new IllegalStateException("Deposit to " + accountId + " has already been spent.");
+        }
+    }
+
+    /**
+     * Gives back a withdrawal applied by a batch that is being rolled back.
+     */
+    public void undoWithdrawal(long amountCents) {
+        credit(amountCents);
+    }
+
+    // Core business logic methods (deposit, withdraw, transfer, viewTransactions remain as before...)
+    public void deposit(long amountCents) {
+        if (amountCents <= 0) throw new IllegalArgumentException("Deposit amount must be positive.");
+        credit(amountCents);
+        Transaction tx = new Transaction(TransactionType.DEPOSIT, amountCents, this.accountId, null);
         accountRepository.saveTransaction(tx);
         accountRepository.save(this); // Saves to CSV
     }
 
-    public void pay(Account targetAccount, double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Transfer amount must be positive.");
+    public void withdraw(long amountCents) {
+        if (amountCents <= 0) throw new IllegalArgumentException("Withdrawal amount must be positive.");
+        if (!tryDebit(amountCents, 0)) throw new IllegalStateException("Insufficient funds.");
+        recordWithdrawal(amountCents);
+    }
 
-        this.withdraw(amount);
-        targetAccount.deposit(amount);
+    public void pay(Account targetAccount, long amountCents) {
+        moveFunds(targetAccount, amountCents, TransactionType.EXTERNAL_TRANSFER);
+    }
 
-        // Save transfer transaction
-        Transaction tx = new Transaction(
-                TransactionType.EXTERNAL_TRANSFER,
-                amount,
-                this.accountId,
-                targetAccount.getAccountId()
-        );
-        accountRepository.saveTransaction(tx);
-        accountRepository.save(this);
+    public void transfer(Account targetAccount, long amountCents) {
+        moveFunds(targetAccount, amountCents, TransactionType.INTERNAL_TRANSFER);
     }
 
-    public void transfer(Account targetAccount, double amount) {
-        if (amount <= 0) throw new IllegalArgumentException("Transfer amount must be positive.");
+    // Both accounts are locked in stripe order for the whole move, so concurrent transfers
+    // in opposite directions cannot deadlock. Both legs and the transfer row are written
+    // together, so a crash can't persist the withdrawal without the deposit.
+    private void moveFunds(Account targetAccount, long amountCents, TransactionType type) {
+        if (amountCents <= 0) throw new IllegalArgumentException("Transfer amount must be positive.");
 
-        this.withdraw(amount);
-        targetAccount.deposit(amount);
+        accountRepository.runAtomically(Arrays.asList(this.accountId, targetAccount.getAccountId()), () -> {
+            this.withdraw(amountCents);
+            try {
+                targetAccount.deposit(amountCents);
+            } catch (RuntimeException e) {
+                undoWithdrawal(amountCents);
+                throw e;
+            }
 
-        // Save transfer transaction
-        Transaction tx = new Transaction(
-                TransactionType.INTERNAL_TRANSFER,
-                amount,
-                this.accountId,
-                targetAccount.getAccountId()
-        );
-        accountRepository.saveTransaction(tx);
-        accountRepository.save(this);
+            // Save transfer transaction
+            Transaction tx = new Transaction(
+                    type,
+                    amountCents,
+                    this.accountId,
+                    targetAccount.getAccountId()
+            );
+            accountRepository.saveTransaction(tx);
+        });
     }
 
     public List<Transaction> viewTransactions() {
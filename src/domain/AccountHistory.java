@@ -1,13 +1,24 @@
 package domain;
 import datasource.AccountRepository;
-import java.util.ArrayList;
+import datasource.TransactionCursor;
+import metrics.Metrics;
+import metrics.OperationStats;
+import java.io.IOException;
+import java.time.YearMonth;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Comparator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AccountHistory {
+    private static final OperationStats ALL_STATS = Metrics.operation("history.getAllTransactions");
+    private static final OperationStats FILTERED_STATS = Metrics.operation("history.getFilteredHistory");
+    private static final OperationStats PAGE_STATS = Metrics.operation("history.page");
+    private static final OperationStats RUNNING_BALANCE_STATS = Metrics.operation("history.runningBalance");
+    private static final OperationStats SUMMARY_STATS = Metrics.operation("history.summary");
+    private static final OperationStats EXPORT_STATS = Metrics.operation("history.export");
+
     private final String accountId;
     private final AccountRepository accountRepository;
 
@@ -21,20 +32,20 @@ public class AccountHistory {
      */
     public static class BalanceSnapshot {
         private final Date date;
-        private final double balance;
+        private final long balanceCents;
 
-        public BalanceSnapshot(Date date, double balance) {
+        public BalanceSnapshot(Date date, long balanceCents) {
             this.date = date;
-            this.balance = balance;
+            this.balanceCents = balanceCents;
         }
 
         // Getters
         public Date getDate() { return date; }
-        public double getBalance() { return balance; }
+        public long getBalanceCents() { return balanceCents; }
 
         @Override
         public String toString() {
-            return String.format("[%s] Balance: $%.2f", date.toString(), balance);
+            return "[" + date + "] Balance: " + Money.format(balanceCents);
         }
     }
 
@@ -44,61 +55,141 @@ public class AccountHistory {
      * Retrieves all transactions for the account.
      */
     public List<Transaction> getAllTransactions() {
-        return accountRepository.findTransactionsByAccountId(accountId);
+        long start = System.nanoTime();
+        List<Transaction> transactions = accountRepository.findTransactionsByAccountId(accountId);
+        ALL_STATS.record(start);
+        return transactions;
     }
 
     /**
-     * Filters the account transactions based on date range and type.
+     * Streams the account's transactions from disk in the order they were saved, without
+     * building a list. Close the stream when done (try-with-resources).
      */
-    public List<Transaction> getFilteredHistory(Date startDate, Date endDate, TransactionType type) {
-        List<Transaction> transactions = getAllTransactions();
-
-        return transactions.stream()
-                .filter(tx -> {
-                    boolean withinDate = tx.getDate().after(startDate) && tx.getDate().before(endDate);
-                    boolean matchingType = (type == null) || tx.getType().equals(type);
-                    return withinDate && matchingType;
-                })
-                .collect(Collectors.toList());
+    public Stream<Transaction> streamAllTransactions() {
+        return accountRepository.streamTransactionsByAccountId(accountId);
     }
 
     /**
-     * Calculates the running balance after each transaction.
+     * Writes one line per transaction to {@code out}, reading the history as it goes,
+     * so memory use doesn't depend on how long the history is.
+     *
+     * @return the number of transactions written
      */
-    public List<BalanceSnapshot> calculateRunningBalance(double initialBalance) {
-        List<Transaction> transactions = getAllTransactions();
-        List<BalanceSnapshot> snapshots = new ArrayList<>();
-        double currentBalance = initialBalance;
-
-        // Ensure transactions are processed in chronological order
-        transactions.sort(Comparator.comparing(Transaction::getDate));
-
-        for (Transaction tx : transactions) {
-            double amount = tx.getAmount();
-
-            // Determine if the transaction increases or decreases the balance
-            if (tx.getType() == TransactionType.DEPOSIT ||
-                    tx.getType() == TransactionType.INTERNAL_TRANSFER) {
-                currentBalance += amount;
-            } else if (tx.getType() == TransactionType.WITHDRAWAL ||
-                    tx.getType() == TransactionType.EXTERNAL_TRANSFER) {
-                currentBalance -= amount;
+    public long exportTo(Appendable out) throws IOException {
+        long start = System.nanoTime();
+        long written = 0;
+        StringBuilder line = new StringBuilder(128);
+        try (TransactionCursor cursor = accountRepository.openTransactionCursor(accountId)) {
+            while (cursor.hasNext()) {
+                line.setLength(0);
+                out.append(formatLine(line, cursor.next()));
+                written++;
             }
+        } catch (IOException e) {
+            EXPORT_STATS.recordError();
+            throw e;
+        } finally {
+            EXPORT_STATS.record(start);
+        }
+        return written;
+    }
 
-            snapshots.add(new BalanceSnapshot(tx.getDate(), currentBalance));
+    /**
+     * The one-line form used by the history view and exports.
+     */
+    public static StringBuilder formatLine(StringBuilder sb, Transaction tx) {
+        sb.append(tx.getDate()).append(" | ")
+                .append(tx.getType()).append(" | ");
+        Money.appendTo(sb.append('$'), tx.getAmountCents())
+                .append(" | from ").append(tx.getSourceAccountId())
+                .append(" to ").append(tx.getTargetAccountId())
+                .append(System.lineSeparator());
+        return sb;
+    }
+
+    /**
+     * Filters the account transactions based on date range (both ends exclusive) and type.
+     */
+    public List<Transaction> getFilteredHistory(Date startDate, Date endDate, TransactionType type) {
+        long start = System.nanoTime();
+        // The repository range is [from, to), so start one millisecond after startDate
+        List<Transaction> transactions = accountRepository.findTransactionsByAccountIdBetween(
+                accountId, new Date(startDate.getTime() + 1), endDate);
+        if (type != null) {
+            transactions = transactions.stream()
+                    .filter(tx -> tx.getType().equals(type))
+                    .collect(Collectors.toList());
         }
+        FILTERED_STATS.record(start);
+        return transactions;
+    }
+
+    /**
+     * How many transactions {@link #getPage} can page through for this filter.
+     * Dates are [from, to); null means no bound, a null type means every type.
+     */
+    public int countMatching(Date from, Date to, TransactionType type) {
+        return accountRepository.countTransactions(accountId, from, to, type);
+    }
+
+    /**
+     * One page of the filtered history in date order. Only {@code limit} transactions are read.
+     */
+    public List<Transaction> getPage(Date from, Date to, TransactionType type, boolean newestFirst,
+                                     int offset, int limit) {
+        long start = System.nanoTime();
+        List<Transaction> page =
+                accountRepository.findTransactionsPage(accountId, from, to, type, newestFirst, offset, limit);
+        PAGE_STATS.record(start);
+        return page;
+    }
+
+    /**
+     * Calculates the running balance after each transaction.
+     */
+    public List<BalanceSnapshot> calculateRunningBalance(long initialBalanceCents) {
+        return getRunningBalancePage(initialBalanceCents, 0, Integer.MAX_VALUE);
+    }
 
-        return snapshots;
+    /**
+     * One page of the running balance, oldest first. Only {@code limit} snapshots are created.
+     */
+    public List<BalanceSnapshot> getRunningBalancePage(long initialBalanceCents, int offset, int limit) {
+        long start = System.nanoTime();
+        List<BalanceSnapshot> page =
+                accountRepository.findRunningBalances(accountId, initialBalanceCents, offset, limit);
+        RUNNING_BALANCE_STATS.record(start);
+        return page;
     }
 
     /**
-     * Provides a summary of total amounts by transaction type.
+     * The balance right after the last transaction dated at or before {@code at}.
      */
-    public Map<String, Double> getSummary() {
-        return getAllTransactions().stream()
-                .collect(Collectors.groupingBy(
-                        tx -> tx.getType().name(),
-                        Collectors.summingDouble(Transaction::getAmount)
-                ));
+    public long getBalanceAt(long initialBalanceCents, Date at) {
+        return initialBalanceCents + accountRepository.netChangeAsOf(accountId, at);
+    }
+
+    /**
+     * Provides a summary of total amounts (in cents) by transaction type.
+     */
+    public Map<String, Long> getSummary() {
+        long start = System.nanoTime();
+        Map<String, Long> totals = accountRepository.findTotalsByType(accountId);
+        SUMMARY_STATS.record(start);
+        return totals;
+    }
+
+    /**
+     * Same summary restricted to transactions dated in the given month.
+     */
+    public Map<String, Long> getSummary(YearMonth month) {
+        long start = System.nanoTime();
+        Map<String, Long> totals = accountRepository.findTotalsByType(accountId, month);
+        SUMMARY_STATS.record(start);
+        return totals;
+    }
+
+    public long getTransactionCount(TransactionType type) {
+        return accountRepository.countTransactionsByType(accountId, type);
     }
 }
\ No newline at end of file
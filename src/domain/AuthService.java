@@ -1,56 +1,169 @@
 package domain;
 
 import datasource.UserRepository;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.OperationStats;
 import java.util.Optional;
-
-public class AuthService {
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class AuthService implements AutoCloseable {
+    // Hashing is deliberately slow, so it runs on a small fixed pool with a bounded queue.
+    // When the queue is full new sign-ins are turned away at once instead of waiting behind
+    // the storm, which keeps the wait for accepted ones bounded.
+    private static final int VERIFY_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int VERIFY_QUEUE = VERIFY_THREADS * 8;
+    private static final long VERIFY_TIMEOUT_MILLIS = 10_000;
+    private static final ExecutorService VERIFIER = newVerifier();
+
+    private static final int CACHE_CAPACITY = 10_000;
+    private static final long CACHE_TTL_MILLIS = 5 * 60_000;
+    // Sessions end after this long without use
+    private static final long SESSION_TTL_MILLIS = 30 * 60_000;
+
+    private static final OperationStats LOGIN_STATS = Metrics.operation("auth.login");
+    private static final OperationStats REGISTER_STATS = Metrics.operation("auth.register");
+    private static final Counter LOGIN_CACHE_HITS = Metrics.counter("auth.login.cacheHits");
+    private static final Counter LOGIN_FAILURES = Metrics.counter("auth.login.failures");
+    private static final Counter REJECTED = Metrics.counter("auth.rejected");
 
     // Direct dependency on the concrete UserRepository (Datasource layer)
     private final UserRepository userRepository;
+    private final PasswordHasher hasher;
+    private final VerificationCache verified = new VerificationCache(CACHE_CAPACITY, CACHE_TTL_MILLIS);
+    private final SessionTable sessions = new SessionTable(SESSION_TTL_MILLIS);
 
     public AuthService(UserRepository repo) {
+        this(repo, new PasswordHasher());
+    }
+
+    public AuthService(UserRepository repo, PasswordHasher hasher) {
         this.userRepository = repo;
+        this.hasher = hasher;
     }
 
+    private static ExecutorService newVerifier() {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(VERIFY_THREADS, VERIFY_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(VERIFY_QUEUE), r -> {
+                    Thread t = new Thread(r, "auth-verify-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
 
     public Optional<User> login(String email, String password) {
+        return await(loginAsync(email, password));
+    }
+
+    /**
+     * Checks the credentials on the verification pool. Completes exceptionally with an
+     * IllegalStateException when too many sign-ins are already waiting.
+     */
+    public CompletableFuture<Optional<User>> loginAsync(String email, String password) {
         System.out.println("SERVICE: Attempting login for: " + email);
+        long start = System.nanoTime();
 
         // 1. Check if the User exists in the Datasource
         Optional<User> userOptional = userRepository.findByEmail(email);
+        if (userOptional.isEmpty()) {
+            System.out.println("SERVICE: Authentication failed.");
+            LOGIN_FAILURES.increment();
+            return timed(LOGIN_STATS, start, CompletableFuture.completedFuture(Optional.empty()));
+        }
 
-        if (userOptional.isPresent()) {
-            User user = userOptional.get();
+        User user = userOptional.get();
+        String stored = user.getPasswordHash();
+        if (verified.contains(email, password, stored)) {
+            System.out.println("SERVICE: Login successful.");
+            LOGIN_CACHE_HITS.increment();
+            return timed(LOGIN_STATS, start, CompletableFuture.completedFuture(userOptional));
+        }
 
+        return timed(LOGIN_STATS, start, submit(() -> {
             // 2. Delegate authentication logic to the Domain entity (User)
-            if (user.authenticate(password)) {
-                // Success: In a real app, session tokens/JWTs would be generated here.
-                System.out.println("SERVICE: Login successful. Session started.");
-                return Optional.of(user);
+            if (!user.authenticate(hasher, password)) {
+                System.out.println("SERVICE: Authentication failed.");
+                LOGIN_FAILURES.increment();
+                return Optional.empty();
             }
-        }
 
-        // Failure: User not found OR password incorrect
-        System.out.println("SERVICE: Authentication failed.");
-        return Optional.empty();
+            // Plaintext from before hashing, or a hash made at a lower cost
+            if (hasher.needsRehash(stored)) {
+                user.changePassword(hasher.hash(password));
+            }
+            verified.put(email, password, user.getPasswordHash());
+            System.out.println("SERVICE: Login successful.");
+            return userOptional;
+        }));
+    }
+
+    /**
+     * Logs in and opens a session. Later operations present the session's token
+     * instead of the password and skip the credential check.
+     */
+    public CompletableFuture<Optional<Session>> signInAsync(String email, String password) {
+        return loginAsync(email, password).thenApply(user -> user.map(this::openSession));
+    }
+
+    public Session openSession(User user) {
+        Session session = sessions.open(user);
+        System.out.println("SERVICE: Session started for: " + user.getEmail());
+        return session;
+    }
+
+    /**
+     * The session for a token, if it is open and hasn't expired. Extends its lifetime.
+     */
+    public Optional<Session> findSession(String token) {
+        return sessions.find(token);
+    }
+
+    public Optional<User> currentUser(String token) {
+        return sessions.find(token).map(Session::getUser);
+    }
+
+    public void endSession(String token) {
+        sessions.close(token);
+    }
+
+    public void endSessions(User user) {
+        sessions.closeAll(user.getUserId());
+    }
+
+    /**
+     * Stops the background sweep of idle sessions. Call when the service is no longer used.
+     */
+    @Override
+    public void close() {
+        sessions.close();
     }
 
 
     public User register(String email, String password) throws IllegalArgumentException {
+        return await(registerAsync(email, password));
+    }
+
+    public CompletableFuture<User> registerAsync(String email, String password) {
+        long start = System.nanoTime();
         // 1. Check if the user already exists
         if (userRepository.findByEmail(email).isPresent()) {
-            throw new IllegalArgumentException("Registration failed: Email address already in use.");
+            return timed(REGISTER_STATS, start, CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Registration failed: Email address already in use.")));
         }
 
-        // 2. Create the new Domain entity (User)
-        // Note: For simplicity, we use the raw password as the hash input here.
-        User newUser = new User(email, password, userRepository);
+        return timed(REGISTER_STATS, start, submit(() -> {
+            // 2. Create the new Domain entity (User) with a salted hash of the password
+            User newUser = new User(email, hasher.hash(password), userRepository);
 
-        // 3. Persist the new entity using the repository (which saves to CSV)
-        userRepository.save(newUser);
+            // 3. Persist the new entity using the repository (which saves to CSV)
+            userRepository.save(newUser);
 
-        System.out.println("SERVICE: Registration successful for: " + email);
-        return newUser;
+            System.out.println("SERVICE: Registration successful for: " + email);
+            return newUser;
+        }));
     }
 
     public User getUser(String email) throws IllegalArgumentException {
@@ -63,9 +176,52 @@ public class AuthService {
     }
 
 
-    public void changePassword(User user, String newPassHash) {
-        // Delegate password change and persistence to the User entity itself
-        user.changePassword(newPassHash);
-        System.out.println("SERVICE: Password successfully changed for: " + user.getEmail());
+    public void changePassword(User user, String newPassword) {
+        await(changePasswordAsync(user, newPassword));
+    }
+
+    public CompletableFuture<Void> changePasswordAsync(User user, String newPassword) {
+        return submit(() -> {
+            String newPassHash = hasher.hash(newPassword);
+            // Delegate password change and persistence to the User entity itself.
+            // Cached verifications include the old hash, so they no longer match.
+            user.changePassword(newPassHash);
+            // Anyone signed in with the old password has to sign in again
+            sessions.closeAll(user.getUserId());
+            System.out.println("SERVICE: Password successfully changed for: " + user.getEmail());
+            return null;
+        });
+    }
+
+    private static <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, VERIFIER);
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Too many sign-ins in progress, please try again."));
+        }
+    }
+
+    // Records the call once the future completes, counting exceptional completions as errors
+    private static <T> CompletableFuture<T> timed(OperationStats stats, long start, CompletableFuture<T> future) {
+        return future.whenComplete((result, error) -> {
+            if (error != null) stats.recordError();
+            stats.record(start);
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Password check timed out, please try again.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking password.");
+        }
     }
-}
\ No newline at end of file
+}
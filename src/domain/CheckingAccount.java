@@ -3,29 +3,35 @@ package domain;
 import datasource.AccountRepository;
 
 public class CheckingAccount extends Account {
-    private final double overdraftLimit = 500.00;
+    private final long overdraftLimitCents = Money.ofWholeUnits(500);
 
     // Constructor 1: For NEW Account creation (Generates ID)
-    public CheckingAccount(String userId, double initialBalance, AccountRepository repo) {
-        super(userId, initialBalance, repo);
+    public CheckingAccount(String userId, long initialBalanceCents, AccountRepository repo) {
+        super(userId, initialBalanceCents, repo);
         this.accountType = "Checking";
     }
 
     // Constructor 2: For LOADING from CSV (Accepts persistent ID)
-    public CheckingAccount(String accountId, String userId, double initialBalance, AccountRepository repo) {
+    public CheckingAccount(String accountId, String userId, long initialBalanceCents, AccountRepository repo) {
         // Calls the base Account loading constructor with the explicit type string
-        super(accountId, userId, "Checking", initialBalance, repo);
+        super(accountId, userId, "Checking", initialBalanceCents, repo);
     }
 
     @Override
-    public void withdraw(double amount) {
-        if (this.balance + overdraftLimit >= amount) {
-            super.withdraw(amount);
-            if (this.balance < 0) {
-                System.out.println("ALERT: Account is in overdraft!");
-            }
-        } else {
+    protected long balanceFloorCents() {
+        return -overdraftLimitCents;
+    }
+
+    @Override
+    public void withdraw(long amountCents) {
+        if (amountCents <= 0) throw new IllegalArgumentException("Withdrawal amount must be positive.");
+        if (!tryDebit(amountCents, balanceFloorCents())) {
             throw new IllegalStateException("Withdrawal exceeds overdraft limit.");
         }
+        recordWithdrawal(amountCents);
+
+        if (getBalanceCents() < 0) {
+            System.out.println("ALERT: Account is in overdraft!");
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,45 +1,71 @@
 package domain;
 
 import datasource.AccountRepository;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class InvestmentAccount extends Account {
-    private final Map<String, Integer> portfolio = new HashMap<>();
+    private final Map<String, Integer> portfolio = new ConcurrentHashMap<>();
     private final double managementFeeRate = 0.005;
 
     // Constructor 1: For NEW Account creation
-    public InvestmentAccount(String userId, double initialBalance, AccountRepository repo) {
-        super(userId, initialBalance, repo);
+    public InvestmentAccount(String userId, long initialBalanceCents, AccountRepository repo) {
+        super(userId, initialBalanceCents, repo);
         this.accountType = "Investment";
     }
 
     // Constructor 2: For LOADING from CSV (Accepts persistent ID)
-    public InvestmentAccount(String accountId, String userId, double initialBalance, AccountRepository repo) {
+    public InvestmentAccount(String accountId, String userId, long initialBalanceCents, AccountRepository repo) {
         // Calls the base Account loading constructor with the explicit type string
-        super(accountId, userId, "Investment", initialBalance, repo);
+        super(accountId, userId, "Investment", initialBalanceCents, repo);
         // Portfolio state would ideally be loaded from a separate data source here.
     }
 
-    public void buySecurity(String ticker, int shares, double pricePerShare) {
-        double cost = shares * pricePerShare;
-        if (this.balance < cost) {
+    public void buySecurity(String ticker, int shares, long pricePerShareCents) {
+        long cost = Money.times(pricePerShareCents, shares);
+        if (cost <= 0) throw new IllegalArgumentException("Withdrawal amount must be positive.");
+        if (!tryDebit(cost, 0)) {
             throw new IllegalStateException("Insufficient funds to buy securities.");
         }
-
-        super.withdraw(cost);
-        portfolio.put(ticker, portfolio.getOrDefault(ticker, 0) + shares);
-        System.out.printf("INFO: Purchased %d shares of %s for $%.2f.%n", shares, ticker, cost);
+        recordWithdrawal(cost);
+        portfolio.merge(ticker, shares, Integer::sum);
+        System.out.printf("INFO: Purchased %d shares of %s for %s.%n", shares, ticker, Money.format(cost));
     }
 
     public void applyQuarterlyMaintenance() {
-        double managementFee = this.balance * managementFeeRate;
-
         try {
-            super.withdraw(managementFee);
-            System.out.printf("INFO: Applied management fee of $%.2f to Investment Account %s.%n", managementFee, getAccountId());
+            Transaction tx = chargeQuarterlyFee();
+            if (tx == null) return;
+
+            accountRepository.saveTransaction(tx);
+            accountRepository.save(this);
+            System.out.printf("INFO: Applied management fee of %s to Investment Account %s.%n", Money.format(tx.getAmountCents()), getAccountId());
         } catch (IllegalStateException e) {
             System.err.println("WARNING: Cannot apply management fee. " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    long quarterlyFeeCents() {
+        return Money.applyRate(getBalanceCents(), managementFeeRate);
+    }
+
+    /**
+     * Debits the management fee in memory only and returns the fee transaction for the
+     * caller to persist, or null if no fee is due.
+     *
+     * @throws IllegalStateException if the balance cannot cover the fee
+     */
+    Transaction chargeQuarterlyFee() {
+        long managementFee = -adjustBalance(
+                balance -> -Math.max(0, Money.applyRate(balance, managementFeeRate)), 0);
+        if (managementFee == 0) return null;
+        return new Transaction(TransactionType.WITHDRAWAL, managementFee, getAccountId(), null);
+    }
+
+    /**
+     * Puts back a fee taken by {@link #chargeQuarterlyFee()} that was never persisted.
+     */
+    void refundQuarterlyFee(Transaction fee) {
+        credit(fee.getAmountCents());
+    }
+}
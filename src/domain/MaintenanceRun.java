@@ -0,0 +1,67 @@
+package domain;
+
+import datasource.AccountRepository;
+import datasource.RunProgressLog;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * What the bulk maintenance runs ({@link MonthEndInterestRun}, {@link QuarterlyFeeRun}) share:
+ * each goes over every account of one type on a fork-join pool, and checks its progress off
+ * in the repository together with the balances it changed, so a run that is started again
+ * never applies itself twice.
+ */
+public abstract class MaintenanceRun<A extends Account> {
+
+    /**
+     * How much a run has moved and how long it took. Extended by each run's own report.
+     */
+    public static class Summary {
+        private final int total;
+        private final long amountCents;
+        private final long elapsedNanos;
+
+        protected Summary(int total, long amountCents, long elapsedNanos) {
+            this.total = total;
+            this.amountCents = amountCents;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Getters
+        public int getTotal() { return total; }
+        public long getAmountCents() { return amountCents; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+        protected double perSecond(int accounts) {
+            return elapsedNanos == 0 ? 0 : accounts * 1e9 / elapsedNanos;
+        }
+    }
+
+    protected final AccountRepository accountRepository;
+    protected final ForkJoinPool pool;
+    private final Class<A> type;
+    private final String runName;
+
+    protected MaintenanceRun(AccountRepository repo, Class<A> type, String runName, ForkJoinPool pool) {
+        this.accountRepository = repo;
+        this.type = type;
+        this.runName = runName;
+        this.pool = pool;
+    }
+
+    // Sorted so a resumed run sees the accounts in the same order as the first attempt
+    protected List<A> accounts() {
+        return accountRepository.findAll().stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .sorted(Comparator.comparing(Account::getAccountId))
+                .collect(Collectors.toList());
+    }
+
+    protected RunProgressLog progressLog() {
+        return accountRepository.progressLog(runName);
+    }
+}
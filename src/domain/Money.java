@@ -0,0 +1,147 @@
+package domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money is carried around as a plain {@code long} of cents everywhere in the app.
+ * This class holds the arithmetic, parsing and formatting for those values.
+ * Nothing here allocates except the String-returning helpers, so the CSV
+ * load/write paths can parse and append amounts without garbage.
+ */
+public final class Money {
+    public static final long ZERO = 0L;
+    private static final int CENTS_PER_UNIT = 100;
+    // Enough whole-unit digits to stay well clear of Long.MAX_VALUE cents
+    private static final int MAX_WHOLE_DIGITS = 16;
+
+    private Money() { }
+
+    // --- Arithmetic ---
+
+    public static long add(long aCents, long bCents) {
+        return Math.addExact(aCents, bCents);
+    }
+
+    public static long subtract(long aCents, long bCents) {
+        return Math.subtractExact(aCents, bCents);
+    }
+
+    public static long times(long cents, long quantity) {
+        return Math.multiplyExact(cents, quantity);
+    }
+
+    /**
+     * Applies a rate (interest, fees) and rounds half-up to the nearest cent.
+     */
+    public static long applyRate(long cents, double rate) {
+        return Math.round(cents * rate);
+    }
+
+    public static long ofWholeUnits(long units) {
+        return Math.multiplyExact(units, CENTS_PER_UNIT);
+    }
+
+    // --- Parsing ---
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a decimal amount such as "12", "-3.5" or "1234.56" into cents.
+     * Surrounding whitespace is ignored and digits past the cents are rounded half-up.
+     * Rows written by older versions may use exponent notation; those take a slower path.
+     *
+     * @throws NumberFormatException if the text is not a decimal amount
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (start == end) throw new NumberFormatException("Empty amount.");
+
+        boolean negative = false;
+        char first = text.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+        }
+
+        long whole = 0;
+        int wholeDigits = 0;
+        int i = start;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') break;
+            if (c == 'e' || c == 'E') return parseSlow(text, start, end, negative);
+            if (c < '0' || c > '9') throw invalid(text, start, end);
+            if (++wholeDigits > MAX_WHOLE_DIGITS) throw new NumberFormatException("Amount too large.");
+            whole = whole * 10 + (c - '0');
+        }
+
+        long fraction = 0;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        if (i < end) {
+            i++; // skip '.'
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == 'e' || c == 'E') return parseSlow(text, start, end, negative);
+                if (c < '0' || c > '9') throw invalid(text, start, end);
+                if (fractionDigits < 2) {
+                    fraction = fraction * 10 + (c - '0');
+                } else if (fractionDigits == 2) {
+                    roundUp = c >= '5';
+                }
+                fractionDigits++;
+            }
+        }
+        if (wholeDigits == 0 && fractionDigits == 0) throw invalid(text, start, end);
+        if (fractionDigits == 1) fraction *= 10;
+
+        long cents = whole * CENTS_PER_UNIT + fraction + (roundUp ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    private static long parseSlow(CharSequence text, int start, int end, boolean negative) {
+        BigDecimal value = new BigDecimal(text.subSequence(start, end).toString())
+                .movePointRight(2)
+                .setScale(0, RoundingMode.HALF_UP);
+        long cents = value.longValueExact();
+        return negative ? -cents : cents;
+    }
+
+    private static NumberFormatException invalid(CharSequence text, int start, int end) {
+        return new NumberFormatException("Invalid amount: \"" + text.subSequence(start, end) + "\"");
+    }
+
+    // --- Formatting ---
+
+    /**
+     * Appends the amount as a plain decimal with exactly two places, e.g. "-4.05".
+     */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        long whole = cents / CENTS_PER_UNIT;
+        int fraction = (int) Math.abs(cents % CENTS_PER_UNIT);
+
+        if (cents < 0 && whole == 0) sb.append('-');
+        sb.append(whole).append('.');
+        if (fraction < 10) sb.append('0');
+        return sb.append(fraction);
+    }
+
+    public static String toString(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Display form used by the UI, e.g. "$12.50".
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24).append('$'), cents).toString();
+    }
+
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+}
@@ -0,0 +1,131 @@
+package domain;
+
+import datasource.AccountRepository;
+import datasource.RunProgressLog;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Month-end interest for every savings account in one run.
+ *
+ * Accounts are processed in chunks: interest for a chunk is credited in parallel on a
+ * fork-join pool, then the whole chunk is persisted and checked off in the run's progress
+ * log with a single batched write. The credits are applied while the repository's journal
+ * is locked for that write, and taken back if it fails, so no other save can persist
+ * interest that the run hasn't. If the run is interrupted it can simply be started again
+ * for the same period, and it picks up after the last finished chunk.
+ */
+public class MonthEndInterestRun extends MaintenanceRun<SavingsAccount> {
+    private static final int CHUNK_SIZE = 10_000;
+
+    /**
+     * How far a run has got. Handed to the listener after every chunk.
+     */
+    public static class Progress extends Summary {
+        private final int processed;
+        private final int skipped;
+
+        public Progress(int processed, int skipped, int total, long interestCents, long elapsedNanos) {
+            super(total, interestCents, elapsedNanos);
+            this.processed = processed;
+            this.skipped = skipped;
+        }
+
+        // Getters
+        public int getProcessed() { return processed; }
+        public int getSkipped() { return skipped; }
+        public long getInterestCents() { return getAmountCents(); }
+
+        public double getAccountsPerSecond() {
+            return perSecond(processed);
+        }
+
+        public boolean isFinished() {
+            return processed + skipped >= getTotal();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d accounts (%d already done), %s credited, %.0f accounts/s",
+                    processed + skipped, getTotal(), skipped, Money.format(getInterestCents()), getAccountsPerSecond());
+        }
+    }
+
+    public MonthEndInterestRun(AccountRepository repo, String period) {
+        this(repo, period, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param period identifies the month being closed, e.g. "2026-10"; rerunning the
+     *               same period resumes (or skips) rather than paying interest twice
+     */
+    public MonthEndInterestRun(AccountRepository repo, String period, ForkJoinPool pool) {
+        super(repo, SavingsAccount.class, "interest-" + period, pool);
+    }
+
+    public Progress run(Consumer<Progress> listener) {
+        long start = System.nanoTime();
+        RunProgressLog log = progressLog();
+        List<SavingsAccount> accounts = accounts();
+
+        if (log.isComplete()) {
+            return new Progress(0, accounts.size(), accounts.size(), 0, 0);
+        }
+
+        List<SavingsAccount> pending = accounts.stream()
+                .filter(a -> !log.isDone(a.getAccountId()))
+                .collect(Collectors.toList());
+        int skipped = accounts.size() - pending.size();
+
+        int processed = 0;
+        long interestCents = 0;
+        Progress progress = new Progress(0, skipped, accounts.size(), 0, 0);
+
+        for (int from = 0; from < pending.size(); from += CHUNK_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Stop between chunks; everything persisted so far is already checked off
+                return progress;
+            }
+
+            List<SavingsAccount> chunk = pending.subList(from, Math.min(from + CHUNK_SIZE, pending.size()));
+
+            // Balances and check marks are written together, so a resumed run never credits
+            // a chunk twice. The last chunk completes the run in the same write.
+            boolean last = from + CHUNK_SIZE >= pending.size();
+            List<Transaction> credited = accountRepository.applyAndSaveAll(chunk,
+                    () -> pool.submit(() -> chunk.parallelStream()
+                            .map(SavingsAccount::accrueMonthlyInterest)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList())).join(),
+                    failed -> reverse(chunk, failed), log, last);
+
+            processed += chunk.size();
+            for (Transaction tx : credited) {
+                interestCents += tx.getAmountCents();
+            }
+            progress = new Progress(processed, skipped, accounts.size(), interestCents, System.nanoTime() - start);
+            listener.accept(progress);
+        }
+
+        if (pending.isEmpty()) {
+            accountRepository.saveAll(Collections.emptyList(), Collections.emptyList(), log, true);
+        }
+        return progress;
+    }
+
+    // Takes back a chunk's credits when its write failed
+    private static void reverse(List<SavingsAccount> chunk, List<Transaction> credited) {
+        Map<String, SavingsAccount> byId = chunk.stream()
+                .collect(Collectors.toMap(Account::getAccountId, Function.identity()));
+        for (Transaction tx : credited) {
+            byId.get(tx.getSourceAccountId()).reverseMonthlyInterest(tx);
+        }
+    }
+}
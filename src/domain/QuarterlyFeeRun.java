@@ -0,0 +1,179 @@
+package domain;
+
+import datasource.AccountRepository;
+import datasource.RunProgressLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Quarterly management fees for every investment account in one run.
+ *
+ * The accounts are split into one partition per core and charged in parallel. Accounts
+ * that cannot be charged are collected into the {@link Report} instead of being printed,
+ * and all fee transactions are committed together with the quarter's completion mark in
+ * a single grouped write. If a partition fails outright, every fee already taken in memory
+ * is refunded and nothing is written.
+ */
+public class QuarterlyFeeRun extends MaintenanceRun<InvestmentAccount> {
+
+    /**
+     * An account whose fee could not be charged, and why.
+     */
+    public static class Failure {
+        private final String accountId;
+        private final long feeCents;
+        private final String reason;
+
+        public Failure(String accountId, long feeCents, String reason) {
+            this.accountId = accountId;
+            this.feeCents = feeCents;
+            this.reason = reason;
+        }
+
+        // Getters
+        public String getAccountId() { return accountId; }
+        public long getFeeCents() { return feeCents; }
+        public String getReason() { return reason; }
+
+        @Override
+        public String toString() {
+            return accountId + ": fee " + Money.format(feeCents) + " not charged (" + reason + ")";
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static class Report extends Summary {
+        private final int charged;
+        private final List<Failure> failures;
+        private final boolean alreadyRun;
+
+        public Report(int total, int charged, long feesCents, List<Failure> failures,
+                      long elapsedNanos, boolean alreadyRun) {
+            super(total, feesCents, elapsedNanos);
+            this.charged = charged;
+            this.failures = Collections.unmodifiableList(failures);
+            this.alreadyRun = alreadyRun;
+        }
+
+        // Getters
+        public int getCharged() { return charged; }
+        public long getFeesCents() { return getAmountCents(); }
+        public List<Failure> getFailures() { return failures; }
+        public boolean isAlreadyRun() { return alreadyRun; }
+
+        public double getAccountsPerSecond() {
+            return perSecond(getTotal());
+        }
+
+        @Override
+        public String toString() {
+            if (alreadyRun) return "Fees for this quarter were already charged.";
+            return String.format("%d/%d accounts charged, %s in fees, %d failed, %.0f accounts/s",
+                    charged, getTotal(), Money.format(getFeesCents()), failures.size(), getAccountsPerSecond());
+        }
+    }
+
+    // What one partition produced; filled in as it goes, so a failed partition's
+    // fees can still be refunded
+    private static class Partial {
+        final List<InvestmentAccount> charged = new ArrayList<>();
+        final List<Transaction> fees = new ArrayList<>();
+        final List<Failure> failures = new ArrayList<>();
+    }
+
+    public QuarterlyFeeRun(AccountRepository repo, String quarter) {
+        this(repo, quarter, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param quarter identifies the quarter being charged, e.g. "2026-Q4"; a quarter
+     *                that already completed is never charged again
+     */
+    public QuarterlyFeeRun(AccountRepository repo, String quarter, ForkJoinPool pool) {
+        super(repo, InvestmentAccount.class, "fees-" + quarter, pool);
+    }
+
+    /**
+     * @throws IllegalStateException if a partition fails; no fee is charged then
+     */
+    public Report run() {
+        long start = System.nanoTime();
+        RunProgressLog log = progressLog();
+        List<InvestmentAccount> accounts = accounts();
+
+        if (log.isComplete()) {
+            return new Report(accounts.size(), 0, 0, new ArrayList<>(), 0, true);
+        }
+
+        int partitions = Math.max(1, Math.min(pool.getParallelism(), accounts.size()));
+        int partitionSize = (accounts.size() + partitions - 1) / partitions;
+
+        List<Partial> parts = new ArrayList<>(partitions);
+        List<Callable<Partial>> tasks = new ArrayList<>(partitions);
+        for (int from = 0; from < accounts.size(); from += partitionSize) {
+            List<InvestmentAccount> slice = accounts.subList(from, Math.min(from + partitionSize, accounts.size()));
+            Partial part = new Partial();
+            parts.add(part);
+            tasks.add(() -> charge(slice, part));
+        }
+
+        // invokeAll waits for every partition, so once it returns none is still charging
+        RuntimeException failure = null;
+        for (Future<Partial> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (failure == null) failure = new IllegalStateException("Fee partition failed: " + cause, cause);
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            }
+        }
+
+        Partial all = new Partial();
+        for (Partial part : parts) {
+            all.charged.addAll(part.charged);
+            all.fees.addAll(part.fees);
+            all.failures.addAll(part.failures);
+        }
+
+        if (failure != null) {
+            for (int i = 0; i < all.fees.size(); i++) {
+                all.charged.get(i).refundQuarterlyFee(all.fees.get(i));
+            }
+            throw failure;
+        }
+
+        accountRepository.saveAll(all.charged, all.fees, log, true);
+
+        long feesCents = 0;
+        for (Transaction tx : all.fees) {
+            feesCents += tx.getAmountCents();
+        }
+        return new Report(accounts.size(), all.charged.size(), feesCents, all.failures,
+                System.nanoTime() - start, false);
+    }
+
+    private static Partial charge(List<InvestmentAccount> slice, Partial part) {
+        for (InvestmentAccount account : slice) {
+            long fee = account.quarterlyFeeCents();
+            try {
+                Transaction tx = account.chargeQuarterlyFee();
+                if (tx != null) {
+                    part.charged.add(account);
+                    part.fees.add(tx);
+                }
+            } catch (RuntimeException e) {
+                part.failures.add(new Failure(account.getAccountId(), fee, e.getMessage()));
+            }
+        }
+        return part;
+    }
+}
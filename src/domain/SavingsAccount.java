@@ -1,41 +1,93 @@
 package domain;
 
 import datasource.AccountRepository;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SavingsAccount extends Account {
     private final double annualInterestRate = 0.025;
     private final int maxMonthlyWithdrawals = 4;
-    private int withdrawalsThisMonth = 0;
+    // The month (counted in interest runs) in the high half and the withdrawals used in it in
+    // the low half, so a withdrawal given back after a reset can't count against the new month
+    private final AtomicLong withdrawalsThisMonth = new AtomicLong(0);
 
     // Constructor 1: For NEW Account creation
-    public SavingsAccount(String userId, double initialBalance, AccountRepository repo) {
-        super(userId, initialBalance, repo);
+    public SavingsAccount(String userId, long initialBalanceCents, AccountRepository repo) {
+        super(userId, initialBalanceCents, repo);
         this.accountType = "Savings";
     }
 
     // Constructor 2: For LOADING from CSV (Accepts persistent ID)
-    public SavingsAccount(String accountId, String userId, double initialBalance, AccountRepository repo) {
+    public SavingsAccount(String accountId, String userId, long initialBalanceCents, AccountRepository repo) {
         // Calls the base Account loading constructor with the explicit type string
-        super(accountId, userId, "Savings", initialBalance, repo);
+        super(accountId, userId, "Savings", initialBalanceCents, repo);
     }
 
     @Override
-    public void withdraw(double amount) {
-        if (withdrawalsThisMonth >= maxMonthlyWithdrawals) {
-            throw new IllegalStateException("Savings account withdrawal limit of " + maxMonthlyWithdrawals + " per month reached.");
+    public void withdraw(long amountCents) {
+        // Reserve one of this month's withdrawals first, then give it back if the debit fails
+        long reserved = reserveWithdrawal();
+        try {
+            super.withdraw(amountCents);
+        } catch (RuntimeException e) {
+            releaseWithdrawal(reserved);
+            throw e;
         }
+    }
+
+    @Override
+    public void undoWithdrawal(long amountCents) {
+        super.undoWithdrawal(amountCents);
+        releaseWithdrawal(withdrawalsThisMonth.get());
+    }
+
+    private long reserveWithdrawal() {
+        long state;
+        do {
+            state = withdrawalsThisMonth.get();
+            if ((int) state >= maxMonthlyWithdrawals) {
+                throw new IllegalStateException("Savings account withdrawal limit of " + maxMonthlyWithdrawals + " per month reached.");
+            }
+        } while (!withdrawalsThisMonth.compareAndSet(state, state + 1));
+        return state + 1;
+    }
 
-        super.withdraw(amount);
-        withdrawalsThisMonth++;
+    // Gives back a withdrawal reserved in the month of {@code reserved}; a no-op once that month is over
+    private void releaseWithdrawal(long reserved) {
+        long state;
+        do {
+            state = withdrawalsThisMonth.get();
+            if (state >>> 32 != reserved >>> 32 || (int) state == 0) return;
+        } while (!withdrawalsThisMonth.compareAndSet(state, state - 1));
     }
 
     public void applyMonthlyInterest() {
-        double interestAmount = this.balance * (annualInterestRate / 12);
+        Transaction tx = accrueMonthlyInterest();
 
-        if (interestAmount > 0) {
-            super.deposit(interestAmount);
-            System.out.printf("INFO: Interest of $%.2f credited to Savings Account %s.%n", interestAmount, getAccountId());
+        if (tx != null) {
+            accountRepository.saveTransaction(tx);
+            accountRepository.save(this);
+            System.out.printf("INFO: Interest of %s credited to Savings Account %s.%n", Money.format(tx.getAmountCents()), getAccountId());
         }
-        withdrawalsThisMonth = 0;
+    }
+
+    /**
+     * Credits this month's interest and resets the withdrawal counter in memory only.
+     * Returns the interest transaction for the caller to persist, or null if none was due.
+     */
+    Transaction accrueMonthlyInterest() {
+        // Next month, none used
+        withdrawalsThisMonth.updateAndGet(state -> ((state >>> 32) + 1) << 32);
+
+        long interestCents = adjustBalance(
+                balance -> Math.max(0, Money.applyRate(balance, annualInterestRate / 12)), 0);
+        if (interestCents == 0) return null;
+        return new Transaction(TransactionType.DEPOSIT, interestCents, getAccountId(), null);
+    }
+
+    /**
+     * Takes back interest credited by {@link #accrueMonthlyInterest()} that was never persisted.
+     */
+    void reverseMonthlyInterest(Transaction interest) {
+        credit(-interest.getAmountCents());
     }
 }
\ No newline at end of file
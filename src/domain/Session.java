@@ -0,0 +1,32 @@
+package domain;
+
+/**
+ * A signed-in user, identified by an opaque token handed out at login.
+ * Expires after a period without use.
+ */
+public final class Session {
+    private final String token;
+    private final User user;
+    private final long createdAt;
+    private volatile long lastSeen;
+
+    Session(String token, User user, long now) {
+        this.token = token;
+        this.user = user;
+        this.createdAt = now;
+        this.lastSeen = now;
+    }
+
+    public String getToken() { return token; }
+    public User getUser() { return user; }
+    public long getCreatedAt() { return createdAt; }
+
+    long getLastSeen() { return lastSeen; }
+
+    void touch(long now) {
+        // Busy sessions would otherwise write this field on every call from every thread
+        if (now - lastSeen >= 1000) {
+            lastSeen = now;
+        }
+    }
+}
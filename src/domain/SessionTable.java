@@ -0,0 +1,165 @@
+package domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.lang.ref.WeakReference;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Open sessions, keyed by a SHA-256 digest of their token.
+ *
+ * Tokens are 32 random bytes, so they can't be guessed, and looking one up is a single
+ * hash-map probe on its digest. Because the map only ever compares digests, how long a
+ * lookup takes says nothing about how close a guessed token was to a real one.
+ * Each user's digests are also indexed, so ending a user's sessions doesn't scan the table.
+ * Sessions idle for longer than the TTL are refused on lookup and swept out once a minute,
+ * until the table is closed.
+ */
+class SessionTable implements AutoCloseable {
+    private static final long SWEEP_PERIOD_MILLIS = 60_000;
+    private static final ScheduledThreadPoolExecutor SWEEPER = newSweeper();
+
+    private final long ttlMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>(1024);
+    // userId -> digests of that user's sessions; changed only inside compute on the user's entry
+    private final Map<String, Set<String>> digestsByUser = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> sweep;
+
+    SessionTable(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.sweep = Sweep.schedule(this);
+    }
+
+    private static ScheduledThreadPoolExecutor newSweeper() {
+        ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // Closed tables' sweeps leave the queue right away
+        sweeper.setRemoveOnCancelPolicy(true);
+        return sweeper;
+    }
+
+    // Holds its table weakly, so a table that was never closed can still be collected;
+    // the sweep cancels itself once it has been
+    private static final class Sweep implements Runnable {
+        private final WeakReference<SessionTable> table;
+        private volatile ScheduledFuture<?> future;
+
+        private Sweep(SessionTable table) {
+            this.table = new WeakReference<>(table);
+        }
+
+        static ScheduledFuture<?> schedule(SessionTable table) {
+            Sweep sweep = new Sweep(table);
+            sweep.future = SWEEPER.scheduleWithFixedDelay(sweep, SWEEP_PERIOD_MILLIS, SWEEP_PERIOD_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            return sweep.future;
+        }
+
+        @Override
+        public void run() {
+            SessionTable current = table.get();
+            if (current != null) {
+                current.evictExpired();
+            } else if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    Session open(User user) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        Session session = new Session(token, user, System.currentTimeMillis());
+        String key = digest(token);
+        digestsByUser.compute(user.getUserId(), (userId, keys) -> {
+            Set<String> updated = keys != null ? keys : new HashSet<>();
+            sessions.put(key, session);
+            updated.add(key);
+            return updated;
+        });
+        return session;
+    }
+
+    Optional<Session> find(String token) {
+        if (token == null) return Optional.empty();
+
+        String key = digest(token);
+        Session session = sessions.get(key);
+        if (session == null) return Optional.empty();
+
+        long now = System.currentTimeMillis();
+        if (now - session.getLastSeen() > ttlMillis) {
+            remove(key, session);
+            return Optional.empty();
+        }
+        session.touch(now);
+        return Optional.of(session);
+    }
+
+    void close(String token) {
+        if (token == null) return;
+
+        String key = digest(token);
+        Session session = sessions.get(key);
+        if (session != null) remove(key, session);
+    }
+
+    /**
+     * Ends every session of the user, e.g. after a password change or account deletion.
+     */
+    void closeAll(String userId) {
+        digestsByUser.computeIfPresent(userId, (id, keys) -> {
+            for (String key : keys) {
+                sessions.remove(key);
+            }
+            return null;
+        });
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops the sweep. Sessions already open can still be looked up.
+     */
+    @Override
+    public void close() {
+        sweep.cancel(false);
+    }
+
+    private void remove(String key, Session session) {
+        digestsByUser.computeIfPresent(session.getUser().getUserId(), (userId, keys) -> {
+            if (sessions.remove(key, session)) keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        sessions.forEach((key, session) -> {
+            if (session.getLastSeen() < cutoff) remove(key, session);
+        });
+    }
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable: " + e.getMessage(), e);
+        }
+    }
+}
@@ -1,5 +1,21 @@
 package domain;
 
 public enum TransactionType {
-    DEPOSIT, WITHDRAWAL, INTERNAL_TRANSFER, EXTERNAL_TRANSFER, TransactionType
-}
\ No newline at end of file
+    DEPOSIT, WITHDRAWAL, INTERNAL_TRANSFER, EXTERNAL_TRANSFER, TransactionType;
+
+    /**
+     * The signed change a transaction of this type makes to its account's running balance.
+     */
+    public long balanceEffect(long amountCents) {
+        switch (this) {
+            case DEPOSIT:
+            case INTERNAL_TRANSFER:
+                return amountCents;
+            case WITHDRAWAL:
+            case EXTERNAL_TRANSFER:
+                return -amountCents;
+            default:
+                return 0;
+        }
+    }
+}
@@ -32,8 +32,8 @@ public class User {
     public String getEmail() { return email; }
     public String getPasswordHash() { return passwordHash; } // Added for CSV output
 
-    public Boolean authenticate(String credentials) {
-        return this.passwordHash.equals(credentials);
+    public Boolean authenticate(PasswordHasher hasher, String password) {
+        return hasher.verify(password, this.passwordHash);
     }
 
     public void changePassword(String newPassHash) {
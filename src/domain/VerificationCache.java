@@ -0,0 +1,74 @@
+package domain;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recent successful password checks for a short while, so signing in again
+ * doesn't pay for the full key derivation.
+ *
+ * Entries are keyed by an HMAC of email, password and stored hash under a key that only
+ * lives in this process, so no password is kept in memory and a password change makes
+ * the old entries unreachable. Size is capped with LRU eviction.
+ */
+class VerificationCache {
+    private final int capacity;
+    private final long ttlMillis;
+    private final SecretKeySpec key;
+    // HMAC key -> expiry time
+    private final Map<String, Long> entries;
+
+    VerificationCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+
+        this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > VerificationCache.this.capacity;
+            }
+        };
+    }
+
+    boolean contains(String email, String password, String storedHash) {
+        String entry = keyFor(email, password, storedHash);
+        synchronized (entries) {
+            Long expiresAt = entries.get(entry);
+            if (expiresAt == null) return false;
+            if (expiresAt < System.currentTimeMillis()) {
+                entries.remove(entry);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    void put(String email, String password, String storedHash) {
+        String entry = keyFor(email, password, storedHash);
+        synchronized (entries) {
+            entries.put(entry, System.currentTimeMillis() + ttlMillis);
+        }
+    }
+
+    private String keyFor(String email, String password, String storedHash) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            // NUL separators so ("ab", "c") and ("a", "bc") differ
+            String input = email + '\0' + password + '\0' + storedHash;
+            return Base64.getEncoder().encodeToString(mac.doFinal(input.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC unavailable: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free count of events, e.g. cache hits.
+ */
+public final class Counter implements CounterMXBean {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public long getValue() { return value.sum(); }
+}
@@ -0,0 +1,10 @@
+package metrics;
+
+/**
+ * JMX view of a plain event counter.
+ */
+public interface CounterMXBean {
+    String getName();
+
+    long getValue();
+}
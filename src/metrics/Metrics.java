@@ -0,0 +1,110 @@
+package metrics;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Process-wide registry of operation timings and counters.
+ *
+ * Every operation and counter is registered with the platform MBean server under
+ * {@code bank.metrics:type=Operation,name=...} or {@code type=Counter}, so jconsole or any
+ * JMX client can read p50/p99 live. {@link #startDump} also writes all of them to a CSV
+ * file on a fixed period.
+ */
+public final class Metrics {
+    private static final String DOMAIN = "bank.metrics";
+    private static final String DUMP_HEADER =
+            "operation,count,errors,meanMicros,p50Micros,p90Micros,p99Micros,p999Micros,maxMicros";
+
+    private static final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService dumper;
+
+    private Metrics() {
+    }
+
+    /**
+     * The stats for {@code name}, created and registered over JMX on first use.
+     */
+    public static OperationStats operation(String name) {
+        return operations.computeIfAbsent(name, n -> register(new OperationStats(n), "Operation", n));
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register(new Counter(n), "Counter", n));
+    }
+
+    private static <T> T register(T bean, String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN, new Hashtable<>(
+                    Map.of("type", type, "name", ObjectName.quote(name))));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (Exception e) {
+            // Metrics still work without JMX
+            System.err.println("Could not register " + name + " with JMX: " + e.getMessage());
+        }
+        return bean;
+    }
+
+    /**
+     * Writes every operation and counter to {@code file} every {@code periodMillis}, replacing
+     * the previous dump. Calling it again changes the file and period.
+     */
+    public static synchronized void startDump(Path file, long periodMillis) {
+        if (periodMillis <= 0) throw new IllegalArgumentException("Dump period must be positive.");
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleWithFixedDelay(() -> dump(file), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Writes one snapshot now: a row per operation, then a row per counter (count only).
+     */
+    public static void dump(Path file) {
+        List<String> lines = new ArrayList<>();
+        lines.add(DUMP_HEADER);
+        for (OperationStats stats : new TreeMap<>(operations).values()) {
+            lines.add(String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f",
+                    stats.getName(), stats.getCount(), stats.getErrors(), stats.getMeanMicros(),
+                    stats.getP50Micros(), stats.getP90Micros(), stats.getP99Micros(),
+                    stats.getP999Micros(), stats.getMaxMicros()));
+        }
+        for (Counter counter : new TreeMap<>(counters).values()) {
+            lines.add(counter.getName() + "," + counter.getValue() + ",,,,,,,");
+        }
+
+        // Replace the file whole, so a reader never sees half a dump
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics to " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, error count and latency histogram for one operation.
+ *
+ * Typical use keeps the instance in a static field and times the call inline:
+ * <pre>
+ *     long start = System.nanoTime();
+ *     try { ... } finally { SAVE.record(start); }
+ * </pre>
+ */
+public final class OperationStats implements OperationStatsMXBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one call that started at {@code startNanos} (from System.nanoTime) and ends now.
+     */
+    public void record(long startNanos) {
+        latency.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * Counts a failed call. Its latency is still recorded by {@link #record}.
+     */
+    public void recordError() {
+        errors.increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public long getCount() { return latency.getCount(); }
+
+    @Override
+    public long getErrors() { return errors.sum(); }
+
+    @Override
+    public double getMeanMicros() { return latency.getMeanNanos() / 1000.0; }
+
+    @Override
+    public double getP50Micros() { return latency.percentileNanos(50) / 1000.0; }
+
+    @Override
+    public double getP90Micros() { return latency.percentileNanos(90) / 1000.0; }
+
+    @Override
+    public double getP99Micros() { return latency.percentileNanos(99) / 1000.0; }
+
+    @Override
+    public double getP999Micros() { return latency.percentileNanos(99.9) / 1000.0; }
+
+    @Override
+    public double getMaxMicros() { return latency.getMaxNanos() / 1000.0; }
+}
@@ -0,0 +1,24 @@
+package metrics;
+
+/**
+ * JMX view of one instrumented operation. Latencies are in microseconds.
+ */
+public interface OperationStatsMXBean {
+    String getName();
+
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,123 @@
+package presentation;
+
+import javax.swing.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs Dashboard operations that touch the data files on background threads, so the
+ * event dispatch thread never waits for a save.
+ *
+ * Commands on the same account run one after another in the order they were submitted;
+ * a command naming several accounts (a transfer) waits for all of them. Results and errors
+ * are handed back on the EDT, and the pending listener hears when an account starts and
+ * stops having work in flight.
+ */
+class AccountCommands {
+    interface Command<T> {
+        T run() throws Exception;
+    }
+
+    interface PendingListener {
+        /**
+         * Called on the EDT when the account gets its first in-flight command, or finishes its last.
+         */
+        void pendingChanged(String accountId, boolean pending);
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "dashboard-command-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final PendingListener listener;
+    // Last command queued per account; the next one on that account chains after it
+    private final Map<String, CompletableFuture<?>> tails = new HashMap<>();
+    // Touched on the EDT only
+    private final Map<String, Integer> pending = new HashMap<>();
+
+    AccountCommands(PendingListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Must be called on the EDT.
+     */
+    <T> void submit(Collection<String> accountIds, Command<T> command,
+                    Consumer<T> onSuccess, Consumer<Exception> onError) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(accountIds));
+        for (String id : ids) {
+            if (pending.merge(id, 1, Integer::sum) == 1) listener.pendingChanged(id, true);
+        }
+
+        CompletableFuture<T> result;
+        synchronized (tails) {
+            List<CompletableFuture<?>> before = new ArrayList<>();
+            for (String id : ids) {
+                CompletableFuture<?> tail = tails.get(id);
+                if (tail != null) before.add(tail);
+            }
+            // Earlier failures are reported to their own callers; this one still runs
+            result = CompletableFuture.allOf(before.toArray(new CompletableFuture<?>[0]))
+                    .handle((r, e) -> null)
+                    .thenApplyAsync(ignored -> call(command), EXECUTOR);
+            for (String id : ids) {
+                tails.put(id, result);
+            }
+        }
+
+        result.whenComplete((value, error) -> {
+            synchronized (tails) {
+                for (String id : ids) {
+                    tails.remove(id, result);
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                for (String id : ids) {
+                    if (pending.merge(id, -1, Integer::sum) == 0) {
+                        pending.remove(id);
+                        listener.pendingChanged(id, false);
+                    }
+                }
+                if (error == null) {
+                    onSuccess.accept(value);
+                } else {
+                    onError.accept(unwrap(error));
+                }
+            });
+        });
+    }
+
+    <T> void submit(String accountId, Command<T> command, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        submit(Collections.singletonList(accountId), command, onSuccess, onError);
+    }
+
+    boolean isPending(String accountId) {
+        return pending.containsKey(accountId);
+    }
+
+    private static <T> T call(Command<T> command) {
+        try {
+            return command.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static Exception unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof Exception ? (Exception) error : new IllegalStateException(error);
+    }
+}
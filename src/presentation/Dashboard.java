@@ -5,6 +5,16 @@ import datasource.*;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,16 +25,22 @@ public class Dashboard extends JPanel {
 
     private final JPanel contentPanel;
     private final User user;
+    private final Session session;
     private final AccountRepository accountRepository;
     private final AuthService authService;
     private final UserRepository userRepo;
-
-    public Dashboard(User user) {
-        this.user = user;
-        this.accountRepository = new AccountRepository();
-
-        userRepo = new UserRepository();
-        this.authService = new AuthService(userRepo);
+    // Saves run here, off the EDT, one at a time per account
+    private final AccountCommands commands = new AccountCommands(this::showPending);
+    // accountId -> "Saving..." label of the account's panel
+    private final Map<String, JLabel> pendingLabels = new HashMap<>();
+
+    public Dashboard(AuthService authService, Session session) {
+        this.session = session;
+        this.user = session.getUser();
+        this.authService = authService;
+        // Shared with every other screen; already loaded after the first login
+        this.accountRepository = DataContext.get().getAccountRepository();
+        this.userRepo = DataContext.get().getUserRepository();
 
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -67,7 +83,10 @@ public class Dashboard extends JPanel {
         loadAccountsForUser();
 
         createBtn.addActionListener(e -> handleCreate());
-        logoutBtn.addActionListener(e -> moveToLogin());
+        logoutBtn.addActionListener(e -> {
+            authService.endSession(session.getToken());
+            moveToLogin();
+        });
 
         // 🔹 NEW: Close user account handler
         closeUserBtn.addActionListener(e -> handleCloseUserAccount());
@@ -75,6 +94,7 @@ public class Dashboard extends JPanel {
 
     private void loadAccountsForUser() {
         contentPanel.removeAll();
+        pendingLabels.clear();
 
         List<Account> accounts = accountRepository.findByUserId(user.getUserId());
         for (Account account : accounts) {
@@ -86,6 +106,7 @@ public class Dashboard extends JPanel {
     }
 
     private void handleCreate() {
+        if (!sessionActive()) return;
         JDialog dialog = new JDialog((Frame) SwingUtilities.getWindowAncestor(this),
                 "Create New Account", true);
         dialog.setLayout(new GridBagLayout());
@@ -131,6 +152,11 @@ public class Dashboard extends JPanel {
         dialog.add(btnPanel, gbc);
 
         createBtn.addActionListener(e -> {
+            // The session may have expired while the dialog was open
+            if (!sessionActive()) {
+                dialog.dispose();
+                return;
+            }
             String selectedType = (String) typeDropdown.getSelectedItem();
             String nickname = nicknameField.getText().trim();
 
@@ -143,7 +169,7 @@ public class Dashboard extends JPanel {
 
             try {
                 Account newAccount;
-                double initialBalance = 0.0;
+                long initialBalance = Money.ZERO;
 
                 switch (selectedType) {
                     case "Checking":
@@ -159,11 +185,20 @@ public class Dashboard extends JPanel {
                         throw new IllegalStateException("Unexpected value: " + selectedType);
                 }
 
-                accountRepository.save(newAccount);
-
-                addSectionPanel(createAccountPanel(newAccount, nickname));
-
-                dialog.dispose();
+                createBtn.setEnabled(false);
+                commands.submit(newAccount.getAccountId(), () -> {
+                    accountRepository.save(newAccount);
+                    return newAccount;
+                }, saved -> {
+                    addSectionPanel(createAccountPanel(saved, nickname));
+                    dialog.dispose();
+                }, ex -> {
+                    createBtn.setEnabled(true);
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(dialog,
+                            "Failed to create account: " + ex.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                });
             } catch (Exception ex) {
                 ex.printStackTrace();
                 JOptionPane.showMessageDialog(dialog,
@@ -177,6 +212,21 @@ public class Dashboard extends JPanel {
         dialog.setVisible(true);
     }
 
+    // Actions that change accounts check the session token rather than asking for the password again
+    private boolean sessionActive() {
+        if (authService.findSession(session.getToken()).isPresent()) {
+            return true;
+        }
+        JOptionPane.showMessageDialog(
+                this,
+                "Your session has expired, please log in again.",
+                "Session Expired",
+                JOptionPane.INFORMATION_MESSAGE
+        );
+        moveToLogin();
+        return false;
+    }
+
     private void moveToLogin() {
         JFrame oldFrame = (JFrame) SwingUtilities.getWindowAncestor(this);
         oldFrame.dispose();
@@ -185,7 +235,7 @@ public class Dashboard extends JPanel {
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(600, 600);
         frame.setLocationRelativeTo(null);
-        frame.add(new Login());
+        frame.add(new Login(authService));
         frame.setVisible(true);
     }
 
@@ -238,6 +288,10 @@ public class Dashboard extends JPanel {
         balanceLbl.setHorizontalAlignment(SwingConstants.RIGHT);
         updateBalanceLabel(balanceLbl, account);
 
+        JLabel pendingLbl = new JLabel(commands.isPending(account.getAccountId()) ? "Saving..." : "");
+        pendingLbl.setForeground(Color.GRAY);
+        pendingLabels.put(account.getAccountId(), pendingLbl);
+
         JButton depositBtn = new JButton("Deposit");
         JButton withdrawBtn = new JButton("Withdraw");
         JButton payBtn = new JButton("Pay");
@@ -264,18 +318,39 @@ public class Dashboard extends JPanel {
 
         accHistoryBtn.addActionListener(e -> showHistory(account));
 
+        JPanel balancePanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        balancePanel.add(pendingLbl);
+        balancePanel.add(balanceLbl);
+
         p.add(nameLbl, BorderLayout.WEST);
-        p.add(balanceLbl, BorderLayout.EAST);
+        p.add(balancePanel, BorderLayout.EAST);
         p.add(btnPanel, BorderLayout.SOUTH);
 
         return p;
     }
 
     private void updateBalanceLabel(JLabel balanceLbl, Account account) {
-        balanceLbl.setText(String.format("$%.2f", account.getBalance()));
+        balanceLbl.setText(Money.format(account.getBalanceCents()));
+    }
+
+    private void showPending(String accountId, boolean pending) {
+        JLabel label = pendingLabels.get(accountId);
+        if (label != null) {
+            label.setText(pending ? "Saving..." : "");
+        }
+    }
+
+    private void showError(Exception ex) {
+        JOptionPane.showMessageDialog(
+                this,
+                ex.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+        );
     }
 
     private void handleDeposit(Account account, JLabel balanceLbl) {
+        if (!sessionActive()) return;
         String input = JOptionPane.showInputDialog(
                 this,
                 "Enter deposit amount:",
@@ -285,13 +360,14 @@ public class Dashboard extends JPanel {
         if (input == null) return;
 
         try {
-            double amount = Double.parseDouble(input);
+            long amount = Money.parse(input);
             if (amount <= 0) {
                 throw new NumberFormatException("Amount must be positive.");
             }
-            account.deposit(amount);
-            accountRepository.save(account);
-            updateBalanceLabel(balanceLbl, account);
+            commands.submit(account.getAccountId(), () -> {
+                account.deposit(amount);
+                return null;
+            }, done -> updateBalanceLabel(balanceLbl, account), this::showError);
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(
                     this,
@@ -299,17 +375,11 @@ public class Dashboard extends JPanel {
                     "Invalid Amount",
                     JOptionPane.ERROR_MESSAGE
             );
-        } catch (IllegalStateException ex) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    ex.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE
-            );
         }
     }
 
     private void handleWithdraw(Account account, JLabel balanceLbl) {
+        if (!sessionActive()) return;
         String input = JOptionPane.showInputDialog(
                 this,
                 "Enter withdrawal amount:",
@@ -319,13 +389,14 @@ public class Dashboard extends JPanel {
         if (input == null) return;
 
         try {
-            double amount = Double.parseDouble(input);
+            long amount = Money.parse(input);
             if (amount <= 0) {
                 throw new NumberFormatException("Amount must be positive.");
             }
-            account.withdraw(amount);
-            accountRepository.save(account);
-            updateBalanceLabel(balanceLbl, account);
+            commands.submit(account.getAccountId(), () -> {
+                account.withdraw(amount);
+                return null;
+            }, done -> updateBalanceLabel(balanceLbl, account), this::showError);
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(
                     this,
@@ -333,18 +404,12 @@ public class Dashboard extends JPanel {
                     "Invalid Amount",
                     JOptionPane.ERROR_MESSAGE
             );
-        } catch (IllegalStateException ex) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    ex.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE
-            );
         }
     }
 
     // Pay logic (unchanged from your last version)
     private void handlePay(Account sourceAccount, JLabel sourceBalanceLbl) {
+        if (!sessionActive()) return;
         JPanel panel = new JPanel(new GridLayout(2, 2, 8, 8));
         JTextField emailField = new JTextField(20);
         JTextField amountField = new JTextField(10);
@@ -389,9 +454,9 @@ public class Dashboard extends JPanel {
             return;
         }
 
-        double amount;
+        long amount;
         try {
-            amount = Double.parseDouble(amountStr);
+            amount = Money.parse(amountStr);
             if (amount <= 0) {
                 throw new NumberFormatException("Amount must be positive.");
             }
@@ -433,7 +498,7 @@ public class Dashboard extends JPanel {
                     .findFirst()
                     .orElse(recipientAccounts.get(0));
 
-            if (sourceAccount.getBalance() < amount) {
+            if (sourceAccount.getBalanceCents() < amount) {
                 JOptionPane.showMessageDialog(
                         this,
                         "Insufficient funds to complete this payment.",
@@ -443,19 +508,20 @@ public class Dashboard extends JPanel {
                 return;
             }
 
-            sourceAccount.transfer(targetAccount, amount);
-
-            accountRepository.save(sourceAccount);
-            accountRepository.save(targetAccount);
+            // transfer() persists both accounts and the transaction itself
+            commands.submit(Arrays.asList(sourceAccount.getAccountId(), targetAccount.getAccountId()), () -> {
+                sourceAccount.transfer(targetAccount, amount);
+                return null;
+            }, done -> {
+                updateBalanceLabel(sourceBalanceLbl, sourceAccount);
 
-            updateBalanceLabel(sourceBalanceLbl, sourceAccount);
-
-            JOptionPane.showMessageDialog(
-                    this,
-                    String.format("Successfully paid $%.2f to %s.", amount, recipientEmail),
-                    "Payment Successful",
-                    JOptionPane.INFORMATION_MESSAGE
-            );
+                JOptionPane.showMessageDialog(
+                        this,
+                        String.format("Successfully paid %s to %s.", Money.format(amount), recipientEmail),
+                        "Payment Successful",
+                        JOptionPane.INFORMATION_MESSAGE
+                );
+            }, this::showError);
 
         } catch (IllegalArgumentException | IllegalStateException ex) {
             JOptionPane.showMessageDialog(
@@ -475,45 +541,128 @@ public class Dashboard extends JPanel {
         }
     }
 
+    // Counting can read the history from disk, so it runs in the background like the saves
     private void showHistory(Account account) {
-        List<Transaction> transactions = account.viewTransactions();
+        commands.submit(Collections.emptyList(),
+                () -> accountRepository.countTransactionsByAccountId(account.getAccountId()),
+                count -> {
+                    if (count == 0) {
+                        JOptionPane.showMessageDialog(
+                                this,
+                                "No transactions found for this account.",
+                                "History",
+                                JOptionPane.INFORMATION_MESSAGE
+                        );
+                        return;
+                    }
+                    openHistory(account);
+                }, this::showError);
+    }
 
-        if (transactions.isEmpty()) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    "No transactions found for this account.",
-                    "History",
-                    JOptionPane.INFORMATION_MESSAGE
-            );
-            return;
-        }
+    private void openHistory(Account account) {
+        AccountHistory history = new AccountHistory(account.getAccountId(), accountRepository);
+        // Rows are fetched a page at a time, in the background, as the table scrolls
+        HistoryTableModel model = new HistoryTableModel(history, commands, this::showError);
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(200);
 
-        StringBuilder sb = new StringBuilder();
-        for (Transaction tx : transactions) {
-            sb.append(String.format(
-                    "%s | %s | $%.2f | from %s to %s%n",
-                    tx.getDate(),
-                    tx.getType(),
-                    tx.getAmount(),
-                    tx.getSourceAccountId(),
-                    tx.getTargetAccountId()
-            ));
+        JDialog dialog = new JDialog((Frame) SwingUtilities.getWindowAncestor(this),
+                "Transaction History", true);
+        dialog.setLayout(new BorderLayout(8, 8));
+        dialog.setSize(800, 500);
+        dialog.setLocationRelativeTo(this);
+
+        JComboBox<Object> typeDropdown = new JComboBox<>();
+        typeDropdown.addItem("All types");
+        for (TransactionType type : TransactionType.values()) {
+            typeDropdown.addItem(type);
         }
+        JTextField fromField = new JTextField(9);
+        JTextField toField = new JTextField(9);
+        JCheckBox newestFirst = new JCheckBox("Newest first", model.isNewestFirst());
+        JButton applyBtn = new JButton("Apply");
+        JLabel countLbl = new JLabel("Counting...");
+        model.addTableModelListener(e -> countLbl.setText(model.getRowCount() + " transactions"));
+
+        JPanel filterBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        filterBar.add(typeDropdown);
+        filterBar.add(new JLabel("From (yyyy-mm-dd):"));
+        filterBar.add(fromField);
+        filterBar.add(new JLabel("To:"));
+        filterBar.add(toField);
+        filterBar.add(newestFirst);
+        filterBar.add(applyBtn);
+        filterBar.add(countLbl);
+
+        applyBtn.addActionListener(e -> {
+            try {
+                Object selected = typeDropdown.getSelectedItem();
+                // The To date is inclusive, so the range ends at the start of the next day
+                model.setFilter(
+                        parseDay(fromField.getText(), 0),
+                        parseDay(toField.getText(), 1),
+                        selected instanceof TransactionType ? (TransactionType) selected : null,
+                        newestFirst.isSelected());
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(
+                        dialog,
+                        "Please enter dates as yyyy-mm-dd.",
+                        "Invalid Date",
+                        JOptionPane.ERROR_MESSAGE
+                );
+            }
+        });
 
-        JTextArea area = new JTextArea(sb.toString(), 15, 50);
-        area.setEditable(false);
-        JScrollPane pane = new JScrollPane(area);
+        JButton exportBtn = new JButton("Export...");
+        JButton closeBtn = new JButton("Close");
+        exportBtn.addActionListener(e -> exportHistory(history));
+        closeBtn.addActionListener(e -> dialog.dispose());
 
-        JOptionPane.showMessageDialog(
+        JPanel btnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        btnPanel.add(exportBtn);
+        btnPanel.add(closeBtn);
+
+        dialog.add(filterBar, BorderLayout.NORTH);
+        dialog.add(new JScrollPane(table), BorderLayout.CENTER);
+        dialog.add(btnPanel, BorderLayout.SOUTH);
+        dialog.setVisible(true);
+    }
+
+    // Start of the given day plus {@code plusDays}, in the local zone; null for a blank field
+    private static Date parseDay(String text, int plusDays) {
+        if (text.trim().isEmpty()) return null;
+        LocalDate day = LocalDate.parse(text.trim()).plusDays(plusDays);
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    // Streams the history straight into the chosen file, in the background
+    private void exportHistory(AccountHistory history) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("transactions-export.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        File file = chooser.getSelectedFile();
+        commands.submit(Collections.emptyList(), () -> {
+            try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                return history.exportTo(out);
+            }
+        }, written -> JOptionPane.showMessageDialog(
                 this,
-                pane,
-                "Transaction History",
+                "Exported " + written + " transactions.",
+                "Export",
                 JOptionPane.INFORMATION_MESSAGE
-        );
+        ), ex -> JOptionPane.showMessageDialog(
+                this,
+                "Export failed: " + ex.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+        ));
     }
 
     // 🔹 NEW: Close user account logic
     private void handleCloseUserAccount() {
+        if (!sessionActive()) return;
         int choice = JOptionPane.showConfirmDialog(
                 this,
                 "Are you sure you want to close your user account?\n" +
@@ -528,13 +677,19 @@ public class Dashboard extends JPanel {
             return;
         }
 
-        try {
+        // Waits for any save still running on one of the user's accounts
+        List<String> accountIds = accountRepository.findByUserId(user.getUserId()).stream()
+                .map(Account::getAccountId)
+                .collect(java.util.stream.Collectors.toList());
+        commands.submit(accountIds, () -> {
             // 1) Delete all accounts + transactions for this user via AccountRepository
             accountRepository.deleteAccountsByUserId(user.getUserId());
 
             // 2) Delete the user from users.csv
             userRepo.delete(user.getUserId());
-
+            authService.endSessions(user);
+            return null;
+        }, done -> {
             JOptionPane.showMessageDialog(
                     this,
                     "Your user account and all associated data have been deleted.",
@@ -544,8 +699,7 @@ public class Dashboard extends JPanel {
 
             // 3) Return to login screen
             moveToLogin();
-
-        } catch (Exception ex) {
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(
                     this,
@@ -553,10 +707,11 @@ public class Dashboard extends JPanel {
                     "Error",
                     JOptionPane.ERROR_MESSAGE
             );
-        }
+        });
     }
 
     private void handleCloseAccount(Account account) {
+        if (!sessionActive()) return;
         int choice = JOptionPane.showConfirmDialog(
                 this,
                 "Are you sure you want to close this bank account?\n" +
@@ -571,10 +726,11 @@ public class Dashboard extends JPanel {
             return;
         }
 
-        try {
-            // Delete this one bank account from all records (accounts.csv + transactions.csv)
+        // Delete this one bank account from all records (accounts.csv + transactions.csv)
+        commands.submit(account.getAccountId(), () -> {
             accountRepository.deleteAccountById(account.getAccountId());
-
+            return null;
+        }, done -> {
             // Refresh the dashboard view
             loadAccountsForUser();
 
@@ -584,7 +740,7 @@ public class Dashboard extends JPanel {
                     "Account Closed",
                     JOptionPane.INFORMATION_MESSAGE
             );
-        } catch (Exception ex) {
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(
                     this,
@@ -592,11 +748,12 @@ public class Dashboard extends JPanel {
                     "Error",
                     JOptionPane.ERROR_MESSAGE
             );
-        }
+        });
     }
 
     // 🔹 NEW: Transfer implementation
     private void handleTransfer(Account sourceAccount, JLabel sourceBalanceLbl) {
+        if (!sessionActive()) return;
 
         // Get all accounts belonging to the user EXCEPT the source account
         List<Account> userAccounts = accountRepository.findByUserId(user.getUserId());
@@ -649,10 +806,10 @@ public class Dashboard extends JPanel {
 
         // Read amount
         String amountStr = amountField.getText().trim();
-        double amount;
+        long amount;
 
         try {
-            amount = Double.parseDouble(amountStr);
+            amount = Money.parse(amountStr);
             if (amount <= 0)
                 throw new NumberFormatException("Amount must be positive.");
         } catch (Exception ex) {
@@ -666,7 +823,7 @@ public class Dashboard extends JPanel {
         }
 
         // Check funds
-        if (sourceAccount.getBalance() < amount) {
+        if (sourceAccount.getBalanceCents() < amount) {
             JOptionPane.showMessageDialog(
                     this,
                     "Insufficient funds in the source account.",
@@ -680,27 +837,23 @@ public class Dashboard extends JPanel {
         String selectedLabel = (String) accountDropdown.getSelectedItem();
         Account targetAccount = mapDisplayToAccount.get(selectedLabel);
 
-        try {
-            // Perform transfer
+        // Perform transfer (persists both accounts and the transaction)
+        commands.submit(Arrays.asList(sourceAccount.getAccountId(), targetAccount.getAccountId()), () -> {
             sourceAccount.transfer(targetAccount, amount);
-
-            // Save updated accounts
-            accountRepository.save(sourceAccount);
-            accountRepository.save(targetAccount);
-
+            return null;
+        }, done -> {
             updateBalanceLabel(sourceBalanceLbl, sourceAccount);
 
             loadAccountsForUser();
 
             JOptionPane.showMessageDialog(
                     this,
-                    String.format("Transferred $%.2f to account ending in %s.",
-                            amount, targetAccount.getAccountId().substring(0, 8)),
+                    String.format("Transferred %s to account ending in %s.",
+                            Money.format(amount), targetAccount.getAccountId().substring(0, 8)),
                     "Transfer Successful",
                     JOptionPane.INFORMATION_MESSAGE
             );
-
-        } catch (Exception ex) {
+        }, ex -> {
             ex.printStackTrace();
             JOptionPane.showMessageDialog(
                     this,
@@ -708,7 +861,7 @@ public class Dashboard extends JPanel {
                     "Transfer Failed",
                     JOptionPane.ERROR_MESSAGE
             );
-        }
+        });
 
 
     }
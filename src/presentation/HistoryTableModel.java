@@ -0,0 +1,161 @@
+package presentation;
+
+import domain.AccountHistory;
+import domain.Money;
+import domain.Transaction;
+import domain.TransactionType;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Table model over an account's history that only holds the pages the table has asked for.
+ *
+ * The row count comes from the history index, and rows are fetched a page at a time when
+ * JTable renders them, so opening a long history costs the same as opening a short one.
+ * Both are read through {@link AccountCommands}, since a cache miss reads the history from
+ * disk; rows show blank until their page arrives back on the EDT.
+ * Filtering by date and type and ordering by date are done by the repository; changing
+ * them drops the cached pages.
+ */
+class HistoryTableModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Date", "Type", "Amount", "From", "To"};
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_PAGES = 16;
+
+    private final AccountHistory history;
+    private final AccountCommands commands;
+    private final Consumer<Exception> onError;
+    private Date from;
+    private Date to;
+    private TransactionType type;
+    private boolean newestFirst = true;
+    private int rowCount;
+    // Bumped by refresh, so counts and pages requested before it are dropped when they arrive
+    private int generation;
+    // Pages requested and not back yet
+    private final Set<Integer> loading = new HashSet<>();
+
+    // page number -> rows, least recently used evicted
+    private final Map<Integer, List<Transaction>> pages = new LinkedHashMap<Integer, List<Transaction>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Transaction>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    HistoryTableModel(AccountHistory history, AccountCommands commands, Consumer<Exception> onError) {
+        this.history = history;
+        this.commands = commands;
+        this.onError = onError;
+        refresh();
+    }
+
+    /**
+     * Applies a new filter. Null dates and a null type mean no restriction.
+     */
+    void setFilter(Date from, Date to, TransactionType type, boolean newestFirst) {
+        this.from = from;
+        this.to = to;
+        this.type = type;
+        this.newestFirst = newestFirst;
+        refresh();
+    }
+
+    boolean isNewestFirst() {
+        return newestFirst;
+    }
+
+    /**
+     * Re-reads the row count, e.g. after new transactions were saved. The table is told
+     * once the count is back.
+     */
+    void refresh() {
+        int requested = ++generation;
+        pages.clear();
+        loading.clear();
+        Date from = this.from;
+        Date to = this.to;
+        TransactionType type = this.type;
+        commands.submit(Collections.emptyList(), () -> history.countMatching(from, to, type), count -> {
+            if (requested != generation) return;
+            rowCount = count;
+            fireTableDataChanged();
+        }, onError);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Transaction tx = rowAt(row);
+        if (tx == null) return "";
+
+        switch (column) {
+            case 0: return tx.getDate();
+            case 1: return tx.getType();
+            case 2: return Money.format(tx.getAmountCents());
+            case 3: return tx.getSourceAccountId();
+            default: return tx.getTargetAccountId() == null ? "" : tx.getTargetAccountId();
+        }
+    }
+
+    private Transaction rowAt(int row) {
+        int page = row / PAGE_SIZE;
+        List<Transaction> rows = pages.get(page);
+        if (rows == null) {
+            requestPage(page);
+            return null;
+        }
+        int index = row % PAGE_SIZE;
+        // The history can shrink under us (an account was deleted); show a blank row until refresh
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    // Fetches a page in the background and repaints its rows when it arrives
+    private void requestPage(int page) {
+        if (!loading.add(page)) return;
+
+        int requested = generation;
+        Date from = this.from;
+        Date to = this.to;
+        TransactionType type = this.type;
+        boolean newestFirst = this.newestFirst;
+        commands.submit(Collections.emptyList(),
+                () -> history.getPage(from, to, type, newestFirst, page * PAGE_SIZE, PAGE_SIZE),
+                rows -> {
+                    if (requested != generation) return;
+                    loading.remove(page);
+                    pages.put(page, rows);
+                    int first = page * PAGE_SIZE;
+                    int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+                    if (first <= last) fireTableRowsUpdated(first, last);
+                }, e -> {
+                    if (requested != generation) return;
+                    // Left blank rather than fetched again on every repaint
+                    loading.remove(page);
+                    pages.put(page, Collections.emptyList());
+                    onError.accept(e);
+                });
+    }
+}
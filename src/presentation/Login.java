@@ -1,11 +1,9 @@
 package presentation;
 
 import domain.*;
-import datasource.*;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Optional;
 import java.util.Random;
 
 public class Login extends JPanel {
@@ -17,9 +15,8 @@ public class Login extends JPanel {
     private final JButton createAccBtn;
     private final JButton forgotPwdBtn;
     private final JTextField statusLbl;
-    public Login() {
-        UserRepository userRepo = new UserRepository();
-        this.authService = new AuthService(userRepo);
+    public Login(AuthService authService) {
+        this.authService = authService;
 
         setLayout(new GridBagLayout());
 
@@ -91,14 +88,14 @@ public class Login extends JPanel {
         statusLbl.setText(msg);
     }
 
-    private void moveToDashboard(User user) {
+    private void moveToDashboard(Session session) {
         JFrame frame = (JFrame) SwingUtilities.getWindowAncestor(this);
 
         new javax.swing.Timer(1000, e -> {
             frame.dispose();
 
             JFrame dashboardFrame = new JFrame("Dashboard");
-            dashboardFrame.add(new Dashboard(user));
+            dashboardFrame.add(new Dashboard(authService, session));
             dashboardFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
             dashboardFrame.setSize(800, 800);
@@ -111,25 +108,24 @@ public class Login extends JPanel {
     }
 
     private void handleLogin() {
-        boolean authenticated = false;
-
         String email = userField.getText().trim();
         String password = new String(pwdField.getPassword());
 
-        Optional<User> userOpt = authService.login(email, password);
-
-        if (userOpt.isPresent()) {
-            authenticated = true;
-        }
-
-        if (authenticated) {
-            User user = userOpt.get();
-            updateStatus("Logging in...");
-
-            moveToDashboard(user);
-        } else {
-            updateStatus("Account not found, please create account with these credentials");
-        }
+        // Hashing runs on the auth pool; the result comes back on the EDT
+        loginBtn.setEnabled(false);
+        updateStatus("Checking credentials...");
+        authService.signInAsync(email, password).whenComplete((session, error) -> SwingUtilities.invokeLater(() -> {
+            loginBtn.setEnabled(true);
+            if (error != null) {
+                updateStatus(error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+            } else if (session.isPresent()) {
+                updateStatus("Logging in...");
+
+                moveToDashboard(session.get());
+            } else {
+                updateStatus("Account not found, please create account with these credentials");
+            }
+        }));
     }
 
     private void handleCreateAcc() {
@@ -141,15 +137,19 @@ public class Login extends JPanel {
             return;
         }
 
-        try {
-            User userOpt = authService.register(email, password);
-
-            updateStatus("Logging in...");
+        createAccBtn.setEnabled(false);
+        authService.registerAsync(email, password).whenComplete((user, error) -> SwingUtilities.invokeLater(() -> {
+            createAccBtn.setEnabled(true);
+            if (error == null) {
+                updateStatus("Logging in...");
 
-            moveToDashboard(userOpt);
-        } catch (Exception ex) {
-            updateStatus("Email already exists in database, try to reset password");
-        }
+                moveToDashboard(authService.openSession(user));
+            } else if (error instanceof IllegalArgumentException || error.getCause() instanceof IllegalArgumentException) {
+                updateStatus("Email already exists in database, try to reset password");
+            } else {
+                updateStatus(error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+            }
+        }));
     }
 
     private void handleForgotPwd() {
@@ -234,8 +234,17 @@ public class Login extends JPanel {
                 }
                 String newPassword = stringBuilder.toString();
 
-                responseLbl.setText("Your new password is " + newPassword);
-                authService.changePassword(user, newPassword);
+                // Hashing runs on the auth pool; the outcome is shown back on the EDT
+                submitBtn.setEnabled(false);
+                responseLbl.setText("Resetting password...");
+                authService.changePasswordAsync(user, newPassword).whenComplete((done, error) -> SwingUtilities.invokeLater(() -> {
+                    submitBtn.setEnabled(true);
+                    if (error != null) {
+                        responseLbl.setText(error.getCause() != null ? error.getCause().getMessage() : error.getMessage());
+                    } else {
+                        responseLbl.setText("Your new password is " + newPassword);
+                    }
+                }));
             } else {
                 responseLbl.setText("Please enter existing email, or create new account");
             }
@@ -0,0 +1,142 @@
+package domain;
+
+import datasource.AccountBatch;
+import datasource.AccountRepository;
+import datasource.DurabilityPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many tellers moving money between the same few accounts at once. No transfer, payment
+ * or batch may create or lose money, in memory or in what is persisted.
+ *
+ * The repository keeps its files in the working directory; the build runs tests from a
+ * scratch directory. Each test uses its own user id, so leftover accounts don't matter.
+ */
+class TransferStressTest {
+    private static final int THREADS = 8;
+    private static final int ACCOUNTS = 24;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+    private static final long OPENING_BALANCE = Money.ofWholeUnits(1_000);
+
+    @Test
+    void transfersAndPaymentsConserveMoney() throws Exception {
+        AccountRepository repo = new AccountRepository(DurabilityPolicy.everyMillis(20));
+        List<Account> accounts = openAccounts(repo);
+
+        runTellers(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Account source = accounts.get(random.nextInt(ACCOUNTS));
+            Account target = accounts.get(random.nextInt(ACCOUNTS));
+            if (source == target) return;
+            long amount = 1 + random.nextInt(20_000);
+            if (random.nextBoolean()) {
+                source.transfer(target, amount);
+            } else {
+                source.pay(target, amount);
+            }
+        });
+
+        assertEquals(ACCOUNTS * OPENING_BALANCE, total(accounts));
+        assertPersisted(repo, accounts);
+    }
+
+    @Test
+    void batchesAndTransfersConserveMoney() throws Exception {
+        AccountRepository repo = new AccountRepository(DurabilityPolicy.everyMillis(20));
+        List<Account> accounts = openAccounts(repo);
+
+        runTellers(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Account a = accounts.get(random.nextInt(ACCOUNTS));
+            Account b = accounts.get(random.nextInt(ACCOUNTS));
+            Account c = accounts.get(random.nextInt(ACCOUNTS));
+            if (a == b || b == c || a == c) return;
+            if (random.nextInt(4) == 0) {
+                a.transfer(b, 1 + random.nextInt(20_000));
+                return;
+            }
+            // Often too large for c, so many of these roll back after the first two applied
+            AccountBatch batch = repo.beginBatch()
+                    .transfer(a, b, 1 + random.nextInt(10_000))
+                    .transfer(b, c, 1 + random.nextInt(10_000))
+                    .pay(c, a, 1 + random.nextInt(200_000));
+            batch.commit();
+        });
+
+        assertEquals(ACCOUNTS * OPENING_BALANCE, total(accounts));
+        assertPersisted(repo, accounts);
+    }
+
+    // A third of each type with a floor or limit of its own
+    private static List<Account> openAccounts(AccountRepository repo) {
+        String userId = "stress-" + UUID.randomUUID();
+        List<Account> accounts = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account;
+            switch (i % 3) {
+                case 0: account = new Account(userId, OPENING_BALANCE, repo); break;
+                case 1: account = new CheckingAccount(userId, OPENING_BALANCE, repo); break;
+                default: account = new SavingsAccount(userId, OPENING_BALANCE, repo); break;
+            }
+            repo.save(account);
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    // Rejected operations (insufficient funds, limits) are expected and ignored
+    private static void runTellers(Runnable operation) throws Exception {
+        ExecutorService tellers = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(tellers.submit(() -> {
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    try {
+                        operation.run();
+                    } catch (IllegalStateException e) {
+                        // rejected, changes nothing
+                    }
+                }
+            }));
+        }
+        tellers.shutdown();
+        // Opposite transfers between the same accounts must never deadlock
+        assertTrue(tellers.awaitTermination(2, TimeUnit.MINUTES), "tellers did not finish");
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static long total(List<Account> accounts) {
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalanceCents();
+        }
+        return total;
+    }
+
+    private static void assertPersisted(AccountRepository repo, List<Account> accounts) {
+        repo.close();
+        AccountRepository reloaded = new AccountRepository();
+        try {
+            for (Account account : accounts) {
+                long stored = reloaded.findById(account.getAccountId()).orElseThrow().getBalanceCents();
+                assertEquals(account.getBalanceCents(), stored, account.getAccountId());
+            }
+        } finally {
+            reloaded.close();
+        }
+    }
+}